@@ -0,0 +1,195 @@
+package example.freemarker.fragments;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import freemarker.cache.FileTemplateLoader;
+import freemarker.core.LibraryLoad;
+import freemarker.core._FragmentCoreAPI;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+
+// Generates the fragment index (see FragmentIndex) from the fragment views which the application's code refers to, so
+// that references to unknown templates or macros fail the build rather than a request, e.g. return "auto/table :: Row";
+// when there's no Row macro. The build runs main() once the classes have been compiled (see the exec-maven-plugin in
+// pom.xml), which looks for string literals in the Java sources which are fragment view names and checks them against
+// the templates. Every template is parsed as well, with its imports checked, so that template syntax errors also fail
+// the build. This is a build-time tool, so it's compiled along with the tests rather than into the application.
+// View names which are only built at runtime (e.g. by concatenation or from a variable) can't be found, and so are
+// neither checked nor indexed.
+public final class FragmentIndexGenerator {
+    private static final String TEMPLATE_SUFFIX = ".ftlh"; // Same as spring.freemarker.suffix
+    private static final Pattern FRAGMENT_VIEW_NAME = Pattern.compile("[\\w./-]+ :: [\\w.-]+(\\s*,\\s*[\\w.-]+)*");
+
+    private FragmentIndexGenerator() {
+    }
+
+    // Arguments: the templates directory, the Java sources directory, the index file to write and optionally a file
+    // listing the fragment view names which are known to be unknown, e.g. those used for demonstrating the error
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3 || args.length > 4) {
+            throw new IllegalArgumentException("Usage: FragmentIndexGenerator <templates directory> "
+                    + "<sources directory> <index file> [ignored view names file]");
+        }
+        Set<String> ignoredViewNames = (args.length == 4) ? readIgnoredViewNames(Path.of(args[3])) : Set.of();
+        generate(Path.of(args[0]), Path.of(args[1]), Path.of(args[2]), ignoredViewNames);
+    }
+
+    // One view name per line, ignoring blank lines and comments starting with #
+    static Set<String> readIgnoredViewNames(Path file) throws IOException {
+        return Files.readAllLines(file, StandardCharsets.UTF_8).stream()
+                .map(String::trim)
+                .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    static void generate(Path templatesDirectory, Path sourcesDirectory, Path indexFile,
+            Collection<String> ignoredViewNames) throws IOException {
+        Configuration cfg = newConfiguration(templatesDirectory);
+        List<String> problems = new ArrayList<>();
+        checkTemplates(cfg, templatesDirectory, problems);
+
+        List<String> viewNames = new ArrayList<>();
+        for (String viewName : findFragmentViewNames(sourcesDirectory)) {
+            if (!ignoredViewNames.contains(viewName)) {
+                List<String> viewProblems = checkFragmentView(cfg, viewName);
+                if (viewProblems.isEmpty()) {
+                    viewNames.add(viewName);
+                }
+                problems.addAll(viewProblems);
+            }
+        }
+
+        if (!problems.isEmpty()) {
+            throw new IllegalStateException("Fragment index generation failed:\n" + String.join("\n", problems));
+        }
+        Files.createDirectories(indexFile.toAbsolutePath().getParent());
+        Files.write(indexFile, viewNames, StandardCharsets.UTF_8);
+    }
+
+    // Only the settings which affect parsing matter, which match application.properties
+    private static Configuration newConfiguration(Path templatesDirectory) throws IOException {
+        Configuration cfg = new Configuration(Configuration.VERSION_2_3_32);
+        cfg.setTemplateLoader(new FileTemplateLoader(templatesDirectory.toFile()));
+        cfg.setDefaultEncoding("UTF-8");
+        cfg.setLogTemplateExceptions(false);
+        return cfg;
+    }
+
+    private static void checkTemplates(Configuration cfg, Path templatesDirectory, List<String> problems)
+            throws IOException {
+        List<String> templateNames;
+        try (Stream<Path> paths = Files.walk(templatesDirectory)) {
+            templateNames = paths
+                    .filter(path -> path.getFileName().toString().endsWith(TEMPLATE_SUFFIX))
+                    .map(path -> templatesDirectory.relativize(path).toString().replace('\\', '/'))
+                    .sorted()
+                    .toList();
+        }
+        for (String templateName : templateNames) {
+            Template template;
+            try {
+                template = cfg.getTemplate(templateName);
+            } catch (IOException e) {
+                problems.add("Failed to parse template \"" + templateName + "\": " + e.getMessage());
+                continue;
+            }
+            checkImports(template, problems);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void checkImports(Template template, List<String> problems) throws IOException {
+        @SuppressWarnings("unchecked")
+        List<LibraryLoad> imports = (List<LibraryLoad>) template.getImports();
+        for (LibraryLoad ll : imports) {
+            String importedName = _FragmentCoreAPI.getLiteralTemplateName(ll);
+            if (importedName != null && FragmentMacros.getImportedTemplate(ll, template) == null) {
+                problems.add("Unknown template \"" + importedName + "\" imported by \"" + template.getName() + "\"");
+            }
+        }
+    }
+
+    // Returns the problems with the view, i.e. an unknown template or macros
+    static List<String> checkFragmentView(Configuration cfg, String viewName) throws IOException {
+        FragmentViews.FragmentViewName fragmentView;
+        try {
+            fragmentView = FragmentViews.FragmentViewName.parse(viewName);
+        } catch (IllegalArgumentException e) {
+            return List.of(e.getMessage());
+        }
+        Template template = cfg.getTemplate(fragmentView.baseViewName() + TEMPLATE_SUFFIX, null, null, null,
+                true, true);
+        if (template == null) {
+            return List.of("Unknown template for fragment view \"" + viewName + "\"");
+        }
+        List<String> problems = new ArrayList<>();
+        for (String macroName : fragmentView.macroNames()) {
+            if (FragmentMacros.find(macroName, template) == null) {
+                problems.add("Unknown fragment macro \"" + macroName + "\" for view \"" + viewName + "\"");
+            }
+        }
+        return problems;
+    }
+
+    private static SortedSet<String> findFragmentViewNames(Path sourcesDirectory) throws IOException {
+        SortedSet<String> viewNames = new TreeSet<>();
+        List<Path> sourceFiles;
+        try (Stream<Path> paths = Files.walk(sourcesDirectory)) {
+            sourceFiles = paths.filter(path -> path.getFileName().toString().endsWith(".java")).toList();
+        }
+        for (Path sourceFile : sourceFiles) {
+            for (String literal : findStringLiterals(Files.readString(sourceFile))) {
+                if (FRAGMENT_VIEW_NAME.matcher(literal).matches()) {
+                    viewNames.add(literal);
+                }
+            }
+        }
+        return viewNames;
+    }
+
+    // The string literals in Java source code, other than text blocks, ignoring those in comments.
+    // Escape sequences aren't translated, since view names don't need them.
+    static List<String> findStringLiterals(String source) {
+        List<String> literals = new ArrayList<>();
+        int length = source.length();
+        int i = 0;
+        while (i < length) {
+            char c = source.charAt(i);
+            if (source.startsWith("//", i)) {
+                int end = source.indexOf('\n', i);
+                i = (end == -1) ? length : end + 1;
+            } else if (source.startsWith("/*", i)) {
+                int end = source.indexOf("*/", i + 2);
+                i = (end == -1) ? length : end + 2;
+            } else if (source.startsWith("\"\"\"", i)) {
+                int end = source.indexOf("\"\"\"", i + 3);
+                i = (end == -1) ? length : end + 3;
+            } else if (c == '"' || c == '\'') {
+                int start = ++i;
+                while (i < length && source.charAt(i) != c) {
+                    i += (source.charAt(i) == '\\') ? 2 : 1;
+                }
+                if (c == '"' && i < length) {
+                    literals.add(source.substring(start, i));
+                }
+                i++;
+            } else {
+                i++;
+            }
+        }
+        return literals;
+    }
+
+}
@@ -0,0 +1,172 @@
+package example.freemarker.fragments;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import freemarker.cache.TemplateLoader;
+import freemarker.template.Configuration;
+import freemarker.template.DefaultObjectWrapperBuilder;
+import freemarker.template.Template;
+import freemarker.template.TemplateDateModel;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateExceptionHandler;
+import freemarker.template.Version;
+
+// Compares rendering a full page against the ways of rendering just one fragment of it.
+// The uncached fragment strategies build their fragment template on every operation, as they would per request
+// without CachingFragmentTemplate. Throughput and SampleTime (which reports percentiles) are both measured,
+// and allocation rates are available by running with "-prof gc".
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public abstract class FragmentBenchmark {
+    private static final int CACHE_MAX_SIZE = 100;
+
+    private final FragmentTemplate semiAutomatic = new FragmentTemplate.SemiAutomatic();
+    private final FragmentTemplate fullyAutomatic = new FragmentTemplate.FullyAutomatic();
+    private final FragmentTemplate directInvocation = new FragmentTemplate.DirectInvocation();
+    private final FragmentTemplate cachedFullyAutomatic =
+            new CachingFragmentTemplate(new FragmentTemplate.FullyAutomatic(), CACHE_MAX_SIZE);
+    private final FragmentTemplate cachedDirectInvocation =
+            new CachingFragmentTemplate(new FragmentTemplate.DirectInvocation(), CACHE_MAX_SIZE);
+
+    // Reused so that output buffer growth doesn't dominate the allocation figures
+    private final CharArrayWriter writer = new CharArrayWriter(64 * 1024);
+
+    private Template pageTemplate;
+    private Template manualTemplate;
+    private String fragmentViewName;
+    private Map<String, Object> pageModel;
+    private Map<String, Object> fragmentModel;
+    private Map<String, Object> semiAutomaticFragmentModel;
+    private Map<String, Object> manualFragmentModel;
+
+
+    protected abstract TemplateLoader templateLoader();
+    protected abstract String pageTemplateName();
+    protected abstract String manualTemplateName();
+    protected abstract String fragmentName();
+    protected abstract String manualFragmentId();
+    protected abstract Map<String, Object> pageModel();
+    protected abstract Map<String, Object> fragmentModel();
+
+    @Setup
+    public void setUp() throws IOException {
+        Configuration cfg = newConfiguration(templateLoader());
+        pageTemplate = cfg.getTemplate(pageTemplateName());
+        manualTemplate = cfg.getTemplate(manualTemplateName());
+        fragmentViewName = pageTemplateName() + " :: " + fragmentName();
+        pageModel = pageModel();
+        fragmentModel = fragmentModel();
+        // SemiAutomatic still evaluates the whole template, so needs the full page's data as well
+        semiAutomaticFragmentModel = new HashMap<>(pageModel);
+        semiAutomaticFragmentModel.putAll(fragmentModel);
+        manualFragmentModel = new HashMap<>(fragmentModel);
+        manualFragmentModel.put("FRAGMENT", manualFragmentId());
+    }
+
+
+    @Benchmark
+    public int fullPage() throws TemplateException, IOException {
+        return render(pageTemplate, pageModel);
+    }
+
+    @Benchmark
+    public int manualFragment() throws TemplateException, IOException {
+        return render(manualTemplate, manualFragmentModel);
+    }
+
+    @Benchmark
+    public int semiAutomaticFragment() throws TemplateException, IOException {
+        return renderFragment(semiAutomatic, semiAutomaticFragmentModel);
+    }
+
+    @Benchmark
+    public int fullyAutomaticFragment() throws TemplateException, IOException {
+        return renderFragment(fullyAutomatic);
+    }
+
+    @Benchmark
+    public int directInvocationFragment() throws TemplateException, IOException {
+        return renderFragment(directInvocation);
+    }
+
+    @Benchmark
+    public int cachedFullyAutomaticFragment() throws TemplateException, IOException {
+        return renderFragment(cachedFullyAutomatic);
+    }
+
+    @Benchmark
+    public int cachedDirectInvocationFragment() throws TemplateException, IOException {
+        return renderFragment(cachedDirectInvocation);
+    }
+
+
+    private int renderFragment(FragmentTemplate builder) throws TemplateException, IOException {
+        return renderFragment(builder, fragmentModel);
+    }
+
+    private int renderFragment(FragmentTemplate builder, Map<String, Object> model)
+            throws TemplateException, IOException {
+        Template fragment = builder.build(fragmentName(), fragmentViewName, pageTemplate);
+        return render(fragment, model);
+    }
+
+    private int render(Template template, Map<String, Object> model) throws TemplateException, IOException {
+        writer.reset();
+        template.process(model, writer);
+        return writer.size();
+    }
+
+
+    protected static List<Person> people(int count) {
+        List<Person> people = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            people.add(new Person(i, "Person " + i, "person" + i + "@example.com"));
+        }
+        return people;
+    }
+
+    // Matches the settings in application.properties
+    protected static Configuration newConfiguration(TemplateLoader templateLoader) {
+        Version version = Configuration.VERSION_2_3_32;
+
+        Configuration cfg = new Configuration(version);
+        cfg.setTemplateLoader(templateLoader);
+
+        cfg.setDefaultEncoding("UTF-8");
+        cfg.setLogTemplateExceptions(false);
+        cfg.setWrapUncheckedExceptions(true);
+        cfg.setFallbackOnNullLoopVariable(false);
+        cfg.setTemplateExceptionHandler(TemplateExceptionHandler.RETHROW_HANDLER);
+
+        DefaultObjectWrapperBuilder builder = new DefaultObjectWrapperBuilder(version);
+        builder.setForceLegacyNonListCollections(false);
+        builder.setIterableSupport(true);
+        builder.setUseAdaptersForContainers(false);
+        builder.setDefaultDateType(TemplateDateModel.DATETIME);
+        cfg.setObjectWrapper(builder.build());
+
+        return cfg;
+    }
+
+}
@@ -0,0 +1,124 @@
+package example.freemarker.fragments;
+
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Param;
+
+import freemarker.cache.StringTemplateLoader;
+import freemarker.cache.TemplateLoader;
+
+// Uses generated templates to vary the number of macros in the page, the depth of the import chain each table
+// cell is rendered through and the number of table rows. The manual template dispatches with an if/elseif chain
+// over all of its macros (as in manual/*.ftlh) and the Table fragment is the last one checked.
+public class GeneratedTemplateBenchmark extends FragmentBenchmark {
+    private static final String PAGE = "page.ftlh";
+    private static final String MANUAL_PAGE = "manual_page.ftlh";
+
+    @Param({ "10", "100" })
+    public int macroCount;
+
+    @Param({ "0", "4" })
+    public int importDepth;
+
+    @Param({ "10", "1000" })
+    public int rows;
+
+    @Override
+    protected TemplateLoader templateLoader() {
+        StringTemplateLoader loader = new StringTemplateLoader();
+        for (int i = 0; i < importDepth; i++) {
+            loader.putTemplate(libName(i), libText(i));
+        }
+        loader.putTemplate(PAGE, pageText(false));
+        loader.putTemplate(MANUAL_PAGE, pageText(true));
+        return loader;
+    }
+
+    @Override
+    protected String pageTemplateName() {
+        return PAGE;
+    }
+
+    @Override
+    protected String manualTemplateName() {
+        return MANUAL_PAGE;
+    }
+
+    @Override
+    protected String fragmentName() {
+        return "Table";
+    }
+
+    @Override
+    protected String manualFragmentId() {
+        return "Table";
+    }
+
+    @Override
+    protected Map<String, Object> pageModel() {
+        return Map.of("people", people(rows));
+    }
+
+    @Override
+    protected Map<String, Object> fragmentModel() {
+        return pageModel();
+    }
+
+
+    private String libName(int depth) {
+        return "lib_" + depth + ".ftlh";
+    }
+
+    private String libText(int depth) {
+        boolean last = depth == importDepth - 1;
+        return last
+                ? "<#macro Cell value><td>${value}</td></#macro>"
+                : "<#import \"" + libName(depth + 1) + "\" as next>" +
+                  "<#macro Cell value><@next.Cell value=value /></#macro>";
+    }
+
+    private String pageText(boolean manualDispatch) {
+        StringBuilder sb = new StringBuilder();
+        if (importDepth > 0) {
+            sb.append("<#import \"").append(libName(0)).append("\" as lib>\n");
+        }
+
+        if (manualDispatch) {
+            sb.append("<#if FRAGMENT?has_content>\n");
+            for (int i = 0; i < macroCount; i++) {
+                sb.append(i == 0 ? "<#if" : "<#elseif").append(" FRAGMENT == 'Section").append(i).append("'>");
+                sb.append("<@Section").append(i).append(" />\n");
+            }
+            sb.append("<#elseif FRAGMENT == 'Table'><@Table />\n");
+            sb.append("<#else><#stop 'Unknown fragment identifier: \"${FRAGMENT}\"'>\n");
+            sb.append("</#if>\n");
+            sb.append("<#else>\n");
+        }
+        sb.append("<!DOCTYPE html>\n<html>\n<body>\n");
+        for (int i = 0; i < macroCount; i++) {
+            sb.append("<@Section").append(i).append(" />\n");
+        }
+        sb.append("<@Table />\n</body>\n</html>\n");
+        if (manualDispatch) {
+            sb.append("</#if>\n");
+        }
+
+        for (int i = 0; i < macroCount; i++) {
+            sb.append("<#macro Section").append(i).append(">\n");
+            sb.append("    <section><h2>Section ").append(i).append("</h2>\n");
+            sb.append("    <p>Lorem ipsum dolor sit amet, consectetur adipiscing elit.</p></section>\n");
+            sb.append("</#macro>\n");
+        }
+        String cell = (importDepth > 0) ? "<@lib.Cell value=%s />" : "<td>${%s}</td>";
+        sb.append("<#macro Row person=person>\n    <tr>");
+        sb.append(String.format(cell, "person.id"));
+        sb.append(String.format(cell, "person.name"));
+        sb.append(String.format(cell, "person.email"));
+        sb.append("</tr>\n</#macro>\n");
+        sb.append("<#macro Table>\n    <table>\n");
+        sb.append("    <#list people as p><@Row person=p /></#list>\n");
+        sb.append("    </table>\n</#macro>\n");
+        return sb.toString();
+    }
+
+}
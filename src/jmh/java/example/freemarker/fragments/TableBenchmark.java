@@ -0,0 +1,120 @@
+package example.freemarker.fragments;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+import freemarker.cache.ClassTemplateLoader;
+import freemarker.cache.TemplateLoader;
+import freemarker.core.FragmentMacroCall;
+import freemarker.template.SimpleHash;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+
+// Uses the application's table templates, rendering the Row fragment
+// via "auto/table.ftlh :: Row" and via the FRAGMENT attribute of "manual/table.ftlh".
+// Also compares rendering the Row fragment for every person separately against rendering them as a batch,
+// and encoding a batch's output with an OutputStreamWriter (like a response's writer) against a StreamingWriter.
+public class TableBenchmark extends FragmentBenchmark {
+
+    @Param({ "10", "1000" })
+    public int rows;
+
+    private final CharArrayWriter rowsWriter = new CharArrayWriter(64 * 1024);
+    private final Writer encodingWriter =
+            new OutputStreamWriter(OutputStream.nullOutputStream(), StandardCharsets.UTF_8);
+    private final BufferPool bufferPool = new BufferPool(8 * 1024, 1);
+    private Template rowFragment;
+    private List<Person> people;
+
+    @Setup
+    public void setUpRows() throws IOException {
+        Template pageTemplate = newConfiguration(templateLoader()).getTemplate(pageTemplateName());
+        rowFragment = new FragmentTemplate.DirectInvocation()
+                .build(fragmentName(), pageTemplateName() + " :: " + fragmentName(), pageTemplate);
+        people = people(rows);
+    }
+
+    @Benchmark
+    public int separateRows() throws TemplateException, IOException {
+        rowsWriter.reset();
+        for (Person person : people) {
+            rowFragment.process(Map.of("person", person), rowsWriter);
+        }
+        return rowsWriter.size();
+    }
+
+    @Benchmark
+    public int batchRows() throws TemplateException, IOException {
+        rowsWriter.reset();
+        SimpleHash model = new SimpleHash(rowFragment.getObjectWrapper());
+        FragmentMacroCall.processEach(rowFragment, model, "person", people, rowsWriter);
+        return rowsWriter.size();
+    }
+
+    @Benchmark
+    public void batchRowsEncodedByWriter() throws TemplateException, IOException {
+        SimpleHash model = new SimpleHash(rowFragment.getObjectWrapper());
+        FragmentMacroCall.processEach(rowFragment, model, "person", people, encodingWriter);
+        encodingWriter.flush();
+    }
+
+    @Benchmark
+    public long batchRowsEncodedDirectly() throws TemplateException, IOException {
+        SimpleHash model = new SimpleHash(rowFragment.getObjectWrapper());
+        StreamingWriter writer =
+                new StreamingWriter(OutputStream.nullOutputStream(), StandardCharsets.UTF_8, bufferPool, false);
+        try {
+            FragmentMacroCall.processEach(rowFragment, model, "person", people, writer);
+            writer.close();
+        } finally {
+            writer.release();
+        }
+        return writer.getCount();
+    }
+
+    @Override
+    protected TemplateLoader templateLoader() {
+        return new ClassTemplateLoader(TableBenchmark.class, "/templates");
+    }
+
+    @Override
+    protected String pageTemplateName() {
+        return "auto/table.ftlh";
+    }
+
+    @Override
+    protected String manualTemplateName() {
+        return "manual/table.ftlh";
+    }
+
+    @Override
+    protected String fragmentName() {
+        return "Row";
+    }
+
+    @Override
+    protected String manualFragmentId() {
+        return "row";
+    }
+
+    @Override
+    protected Map<String, Object> pageModel() {
+        return Map.of("people", people(rows));
+    }
+
+    @Override
+    protected Map<String, Object> fragmentModel() {
+        return Map.of("person", people(1).get(0));
+    }
+
+}
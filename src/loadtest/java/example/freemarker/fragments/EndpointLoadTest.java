@@ -0,0 +1,201 @@
+package example.freemarker.fragments;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+// Drives the application's page and fragment endpoints (both implementations) and checks them against a baseline, e.g.
+//   ./mvnw -Ploadtest test-compile exec:exec -Dloadtest.class=EndpointLoadTest
+//   ./mvnw -Ploadtest test-compile exec:exec -Dloadtest.class=EndpointLoadTest -Dloadtest.args="writeBaseline=true"
+// The application is started on a random port and once every endpoint has been warmed up, each is sent requests up
+// to the concurrency, one endpoint at a time. The throughput, p50/p99 latencies and the GC pressure (bytes allocated
+// per request and the collections during the run) are reported for each. The allocations are only counted for
+// Tomcat's threads (see LoadTestSupport.ServerAllocationCounter), so not for the client's, and Tomcat is given as many
+// spare threads as it can have, so that none of them end meanwhile. That doesn't work with virtual threads.
+// The metrics in the baseline file are then compared, and the exit code is 1 (failing the Maven build) if any is worse
+// than its baseline value by more than the threshold. Only the metrics in the file are checked. writeBaseline only
+// records the allocations by default, since throughput and latency depend on the machine, which is how the committed
+// baseline was written; baselineMetrics=all records every metric, which is how to gate those too, on the machine that
+// runs the load test.
+// Arguments starting with "--" are passed to the application and the others are name=value settings:
+//   requests (default 5000), warmupRequests (default 2000), concurrency (default 16),
+//   baseline (default src/loadtest/endpoint-baseline.properties), threshold (default 0.15), writeBaseline,
+//   baselineMetrics (default allocatedBytesPerRequest, or a comma-separated list of metrics or all)
+public class EndpointLoadTest {
+    private static final List<String> ENDPOINTS = List.of(
+            "/auto", "/auto/fragment", "/auto/table/row",
+            "/manual", "/manual/fragment", "/manual/table/row");
+
+    public static void main(String[] args) throws Exception {
+        LoadTestSupport.Arguments arguments = LoadTestSupport.Arguments.parse(args);
+        int requests = arguments.getInt("requests", 5000);
+        int warmupRequests = arguments.getInt("warmupRequests", 2000);
+        int concurrency = arguments.getInt("concurrency", 16);
+        Path baselineFile = Path.of(arguments.get("baseline", "src/loadtest/endpoint-baseline.properties"));
+        double threshold = Double.parseDouble(arguments.get("threshold", "0.15"));
+        boolean writeBaseline = Boolean.parseBoolean(arguments.get("writeBaseline", "false"));
+        String baselineMetrics = arguments.get("baselineMetrics", "allocatedBytesPerRequest");
+
+        List<String> applicationArgs = new ArrayList<>(List.of(arguments.getApplicationArgs()));
+        if (applicationArgs.stream().noneMatch(arg -> arg.startsWith("--server.tomcat.threads.min-spare="))) {
+            applicationArgs.add("--server.tomcat.threads.min-spare=200"); // Tomcat's default maximum
+        }
+        Map<String, Double> metrics = new LinkedHashMap<>();
+        List<String> errors = new ArrayList<>();
+        ConfigurableApplicationContext context = SpringApplication.run(
+                FreeMarkerFragmentsApplication.class, applicationArgs.toArray(String[]::new));
+        try {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            // Named after the connector, which is "auto-1" rather than the port when it's random
+            String serverThreadNamePrefix = "http-nio-";
+            HttpClient client = LoadTestSupport.newHttpClient();
+
+            // Every endpoint is warmed up first, since they share most of the code being compiled
+            for (String endpoint : ENDPOINTS) {
+                run(client, URI.create("http://127.0.0.1:" + port + endpoint), warmupRequests, concurrency,
+                        serverThreadNamePrefix);
+            }
+            System.out.printf("%n%-20s %12s %9s %9s %14s %6s %9s%n",
+                    "Endpoint", "Requests/s", "p50 ms", "p99 ms", "Alloc/request", "GCs", "GC ms");
+            for (String endpoint : ENDPOINTS) {
+                Result result = run(client, URI.create("http://127.0.0.1:" + port + endpoint), requests, concurrency,
+                        serverThreadNamePrefix);
+                System.out.printf("%-20s %12.0f %9.2f %9.2f %12.1fKB %6d %9d%n", endpoint,
+                        result.throughput(), result.percentileMillis(50), result.percentileMillis(99),
+                        result.allocatedBytesPerRequest() / 1024, result.gcCount(), result.gcMillis());
+                if (result.errors() > 0) {
+                    errors.add(endpoint + ": " + result.errors() + " errors, the first being " + result.firstError());
+                }
+                metrics.put(endpoint + ".throughput", result.throughput());
+                metrics.put(endpoint + ".p50Millis", result.percentileMillis(50));
+                metrics.put(endpoint + ".p99Millis", result.percentileMillis(99));
+                metrics.put(endpoint + ".allocatedBytesPerRequest", result.allocatedBytesPerRequest());
+            }
+        } finally {
+            context.close();
+        }
+
+        if (writeBaseline) {
+            writeBaseline(baselineFile, metrics, baselineMetrics);
+            System.out.println("\nWrote the baseline to " + baselineFile);
+        } else if (Files.exists(baselineFile)) {
+            errors.addAll(findRegressions(readBaseline(baselineFile), metrics, threshold));
+        } else {
+            System.out.println("\nNo baseline to compare with at " + baselineFile);
+        }
+        if (!errors.isEmpty()) {
+            System.out.println("\nFailed:");
+            errors.forEach(error -> System.out.println("  " + error));
+            System.exit(1);
+        }
+    }
+
+    private static Result run(HttpClient client, URI uri, int requests, int concurrency,
+            String serverThreadNamePrefix) throws Exception {
+        var allocations = new LoadTestSupport.ServerAllocationCounter(serverThreadNamePrefix);
+        long[] gcBefore = getGarbageCollections();
+        LoadTestSupport.Requests sent =
+                LoadTestSupport.send(client, uri, Duration.ofMinutes(1), requests, concurrency, body -> true);
+        long[] gcAfter = getGarbageCollections();
+        return new Result(sent, (double) allocations.getAllocatedBytes() / requests,
+                gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1]);
+    }
+
+    // The collection count and time in milliseconds, across all collectors
+    private static long[] getGarbageCollections() {
+        long[] totals = new long[2];
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals[0] += Math.max(collector.getCollectionCount(), 0);
+            totals[1] += Math.max(collector.getCollectionTime(), 0);
+        }
+        return totals;
+    }
+
+    // Throughput is worse when lower, whereas latencies and allocations are worse when higher
+    static List<String> findRegressions(Map<String, Double> baseline, Map<String, Double> metrics,
+            double threshold) {
+        List<String> regressions = new ArrayList<>();
+        baseline.forEach((name, baselineValue) -> {
+            Double value = metrics.get(name);
+            if (value == null) {
+                regressions.add(name + ": missing from the results");
+                return;
+            }
+            boolean higherIsBetter = name.endsWith(".throughput");
+            double change = (value - baselineValue) / baselineValue;
+            if (higherIsBetter ? change < -threshold : change > threshold) {
+                regressions.add(String.format("%s: %.2f vs a baseline of %.2f (%+.0f%%)",
+                        name, value, baselineValue, change * 100));
+            }
+        });
+        return regressions;
+    }
+
+    private static Map<String, Double> readBaseline(Path baselineFile) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(baselineFile, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        Map<String, Double> baseline = new TreeMap<>();
+        properties.forEach((name, value) -> baseline.put((String) name, Double.parseDouble((String) value)));
+        return baseline;
+    }
+
+    // The metrics are selected by the part of their names after the endpoint, e.g. "throughput"
+    private static void writeBaseline(Path baselineFile, Map<String, Double> metrics, String baselineMetrics)
+            throws IOException {
+        Set<String> selected = Set.of(baselineMetrics.split(","));
+        try (Writer writer = Files.newBufferedWriter(baselineFile, StandardCharsets.UTF_8)) {
+            writer.write("# Written by EndpointLoadTest (writeBaseline=true baselineMetrics=" + baselineMetrics
+                    + ") on Java " + Runtime.version() + "\n");
+            for (Map.Entry<String, Double> metric : metrics.entrySet()) {
+                String name = metric.getKey().substring(metric.getKey().lastIndexOf('.') + 1);
+                if (baselineMetrics.equals("all") || selected.contains(name)) {
+                    writer.write(metric.getKey() + "="
+                            + String.format(Locale.ROOT, "%.2f", metric.getValue()) + "\n");
+                }
+            }
+        }
+    }
+
+    private record Result(LoadTestSupport.Requests requests, double allocatedBytesPerRequest,
+            long gcCount, long gcMillis) {
+
+        double throughput() {
+            return requests.throughput();
+        }
+
+        double percentileMillis(int percentile) {
+            return requests.percentileMillis(percentile);
+        }
+
+        int errors() {
+            return requests.errors();
+        }
+
+        String firstError() {
+            return requests.firstError();
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+package example.freemarker.fragments;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+
+import com.sun.management.UnixOperatingSystemMXBean;
+
+// Shows how many fragment requests the application can have in progress at once, e.g.
+//   ./mvnw -Ploadtest test-compile exec:exec
+//   SPRING_PROFILES_ACTIVE=virtual-threads JAVA_HOME=<JDK 21> ./mvnw -Ploadtest test-compile exec:exec
+// The application is started on a random port, along with an endpoint that renders the "auto/table :: Row" fragment
+// after simulating a blocking data load (e.g. a JDBC query), since it's blocking that ties up a thread per request.
+// Requests are sent as fast as possible up to the concurrency and the peak number in progress on the server at the
+// same time is reported, along with the throughput and latencies. On platform threads, the peak is capped by Tomcat's
+// thread pool (200 threads by default), whereas on virtual threads it scales with the concurrency.
+// Arguments starting with "--" are passed to the application and the others are name=value settings:
+//   requests (default 40000), concurrency (default 20000), latencyMillis (default 100)
+// Both ends of each connection are in this process, so it needs twice the concurrency in file descriptors.
+public class FragmentLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        LoadTestSupport.Arguments arguments = LoadTestSupport.Arguments.parse(args);
+        int requests = arguments.getInt("requests", 40000);
+        int concurrency = arguments.getInt("concurrency", 20000);
+        long latencyMillis = Long.parseLong(arguments.get("latencyMillis", "100"));
+        warnIfTooFewFileDescriptors(concurrency);
+
+        ConfigurableApplicationContext context = SpringApplication.run(
+                new Class<?>[] { FreeMarkerFragmentsApplication.class, LoadTestConfig.class },
+                arguments.getApplicationArgs());
+        try {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            URI uri = URI.create("http://127.0.0.1:" + port + "/loadtest/row");
+            LoadTestController controller = context.getBean(LoadTestController.class);
+            HttpClient client = LoadTestSupport.newHttpClient();
+
+            controller.latencyMillis = 0;
+            run(client, uri, Math.min(requests, 2000), Math.min(concurrency, 100), controller); // warm up
+            controller.latencyMillis = latencyMillis;
+            controller.peakInProgress.set(0);
+            Result result = run(client, uri, requests, concurrency, controller);
+
+            System.out.printf("%nThreads: %s%n", isVirtual(controller.lastThread) ? "virtual" : "platform");
+            System.out.printf("Requests: %d (concurrency %d, latency %d ms), errors: %d%n",
+                    requests, concurrency, latencyMillis, result.errors());
+            System.out.printf("Peak in progress on the server: %d%n", result.peakInProgress());
+            System.out.printf("Throughput: %.0f requests/s%n", result.throughput());
+            System.out.printf("Latency: p50 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+                    result.percentileMillis(50), result.percentileMillis(99), result.percentileMillis(100));
+            if (result.firstError() != null) {
+                System.out.println("First error: " + result.firstError());
+            }
+        } finally {
+            context.close();
+        }
+    }
+
+    private static Result run(HttpClient client, URI uri, int requests, int concurrency,
+            LoadTestController controller) throws InterruptedException {
+        LoadTestSupport.Requests sent = LoadTestSupport.send(client, uri, Duration.ofMinutes(2), requests, concurrency,
+                body -> body.contains("George John"));
+        return new Result(sent, controller.peakInProgress.get());
+    }
+
+    private static void warnIfTooFewFileDescriptors(int concurrency) {
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof UnixOperatingSystemMXBean os
+                && os.getMaxFileDescriptorCount() < 2L * concurrency + 1000) {
+            System.err.printf("Warning: the concurrency %d needs more than the %d file descriptors available "
+                    + "(see ulimit -n)%n", concurrency, os.getMaxFileDescriptorCount());
+        }
+    }
+
+    // Thread.isVirtual() is only available from Java 21
+    private static boolean isVirtual(Thread thread) {
+        try {
+            return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+
+    // Not a @Configuration, so that it's only registered as a source of the application and not by component scanning
+    static class LoadTestConfig {
+        @Bean
+        LoadTestController loadTestController() {
+            return new LoadTestController();
+        }
+    }
+
+    // Not a @Controller for the same reason
+    @RequestMapping("/loadtest")
+    static class LoadTestController {
+        volatile long latencyMillis;
+        volatile Thread lastThread;
+        final AtomicInteger inProgress = new AtomicInteger();
+        final AtomicInteger peakInProgress = new AtomicInteger();
+
+        @GetMapping("/row")
+        public String getRow(Model model) throws InterruptedException {
+            peakInProgress.accumulateAndGet(inProgress.incrementAndGet(), Math::max);
+            lastThread = Thread.currentThread();
+            try {
+                Thread.sleep(latencyMillis);
+            } finally {
+                inProgress.decrementAndGet();
+            }
+            model.addAttribute("person", new Person(3, "George John", "gj@gmail.com"));
+            return "auto/table :: Row";
+        }
+    }
+
+    private record Result(LoadTestSupport.Requests requests, int peakInProgress) {
+
+        double throughput() {
+            return requests.throughput();
+        }
+
+        double percentileMillis(int percentile) {
+            return requests.percentileMillis(percentile);
+        }
+
+        int errors() {
+            return requests.errors();
+        }
+
+        String firstError() {
+            return requests.firstError();
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+package example.freemarker.fragments;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
+import com.sun.management.ThreadMXBean;
+
+// What the load tests have in common: their arguments and sending requests up to a concurrency
+final class LoadTestSupport {
+
+    private LoadTestSupport() {
+    }
+
+    static HttpClient newHttpClient() {
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+    }
+
+    // Sends the requests as fast as possible up to the concurrency. Responses are errors unless they're a 200 and
+    // their body passes the check.
+    static Requests send(HttpClient client, URI uri, Duration timeout, int requests, int concurrency,
+            Predicate<String> bodyCheck) throws InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(uri).timeout(timeout).build();
+        Semaphore permits = new Semaphore(concurrency);
+        CountDownLatch done = new CountDownLatch(requests);
+        long[] latencies = new long[requests];
+        AtomicInteger errors = new AtomicInteger();
+        AtomicReference<String> firstError = new AtomicReference<>();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            permits.acquire();
+            int index = i;
+            long requestStart = System.nanoTime();
+            client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((response, failure) -> {
+                latencies[index] = System.nanoTime() - requestStart;
+                if (failure != null || response.statusCode() != 200 || !bodyCheck.test(response.body())) {
+                    errors.incrementAndGet();
+                    firstError.compareAndSet(null, (failure != null) ? failure.toString()
+                            : "HTTP " + response.statusCode() + ": " + response.body());
+                }
+                permits.release();
+                done.countDown();
+            });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        return new Requests(elapsed, latencies, errors.get(), firstError.get());
+    }
+
+    // Arguments starting with "--" are passed to the application, which is always started on a random port,
+    // and the others are name=value settings
+    record Arguments(Map<String, String> settings, List<String> applicationArgs) {
+
+        static Arguments parse(String[] args) {
+            Map<String, String> settings = new HashMap<>();
+            List<String> applicationArgs = new ArrayList<>(List.of("--server.port=0"));
+            for (String arg : args) {
+                int index = arg.indexOf('=');
+                if (arg.startsWith("--")) {
+                    applicationArgs.add(arg);
+                } else if (index > 0) {
+                    settings.put(arg.substring(0, index), arg.substring(index + 1));
+                } else {
+                    throw new IllegalArgumentException("Expected --applicationArg or name=value: " + arg);
+                }
+            }
+            return new Arguments(settings, applicationArgs);
+        }
+
+        String get(String name, String defaultValue) {
+            return settings.getOrDefault(name, defaultValue);
+        }
+
+        int getInt(String name, int defaultValue) {
+            return Integer.parseInt(get(name, String.valueOf(defaultValue)));
+        }
+
+        String[] getApplicationArgs() {
+            return applicationArgs.toArray(String[]::new);
+        }
+    }
+
+    record Requests(long elapsedNanos, long[] sortedLatencies, int errors, String firstError) {
+
+        double throughput() {
+            return sortedLatencies.length / (elapsedNanos / 1e9);
+        }
+
+        double percentileMillis(int percentile) {
+            int index = (int) Math.ceil(percentile / 100.0 * sortedLatencies.length) - 1;
+            return sortedLatencies[Math.max(index, 0)] / 1e6;
+        }
+    }
+
+    // Counts the bytes allocated by the server's threads, i.e. those whose names start with the prefix (e.g. Tomcat's
+    // "http-nio-8080-exec-1"), so unlike counting for the whole process it excludes the client's allocations, which
+    // are in the same process. Threads which end meanwhile (e.g. idle pool threads timing out) would take their counts
+    // with them, so that fails the count. The JVM doesn't count the allocations of virtual threads.
+    static final class ServerAllocationCounter {
+        private final ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        private final String threadNamePrefix;
+        private final Map<Long, Long> allocatedAtStart;
+
+        ServerAllocationCounter(String threadNamePrefix) {
+            this.threadNamePrefix = threadNamePrefix;
+            this.allocatedAtStart = getAllocatedBytesByThread();
+        }
+
+        long getAllocatedBytes() {
+            Map<Long, Long> allocated = getAllocatedBytesByThread();
+            if (allocated.isEmpty()) {
+                throw new IllegalStateException("No threads named " + threadNamePrefix + "* to count the allocations "
+                        + "of, e.g. since requests are handled on virtual threads");
+            }
+            if (!allocated.keySet().containsAll(allocatedAtStart.keySet())) {
+                throw new IllegalStateException("Threads named " + threadNamePrefix + "* ended while counting, so "
+                        + "their allocations weren't counted");
+            }
+            long total = 0;
+            for (Map.Entry<Long, Long> entry : allocated.entrySet()) {
+                total += entry.getValue() - allocatedAtStart.getOrDefault(entry.getKey(), 0L);
+            }
+            return total;
+        }
+
+        private Map<Long, Long> getAllocatedBytesByThread() {
+            Map<Long, Long> allocated = new HashMap<>();
+            for (ThreadInfo thread : threads.getThreadInfo(threads.getAllThreadIds(), 0)) {
+                // Null for threads which have ended since getting the IDs
+                if (thread != null && thread.getThreadName().startsWith(threadNamePrefix)) {
+                    long bytes = threads.getThreadAllocatedBytes(thread.getThreadId());
+                    if (bytes >= 0) {
+                        allocated.put(thread.getThreadId(), bytes);
+                    }
+                }
+            }
+            return allocated;
+        }
+    }
+
+}
@@ -0,0 +1,237 @@
+package example.freemarker.fragments;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import freemarker.template.Template;
+
+// Caches the fragment templates built by another strategy, so that a fragment is only parsed and assembled
+// once instead of on every render. Entries are keyed by the base template's name, locale and custom lookup
+// condition along with the macro names. The strategy doesn't need to be part of the key since each cache wraps
+// a single strategy and the tag syntax doesn't either, since it's fixed for any given base template instance.
+// The base template instance that a fragment was built from is kept with it, so when FreeMarker's own template
+// cache reloads a modified base template (handing us a new instance), the stale fragment is rebuilt and replaced.
+// Since fragments multiply by views, fragments and locales, the entries held strongly are limited by count and by
+// their estimated size (see TemplateSizes). That doesn't include the base template, which is accounted for by
+// FreeMarker's cache, though a fragment can keep an evicted base template alive (e.g. by sharing its macros).
+// Entries over the limits are either dropped or, with soft references, kept until the garbage collector needs the
+// memory, similar to FreeMarker's MruCacheStorage.
+class CachingFragmentTemplate extends FragmentTemplate {
+    private final FragmentTemplate delegate;
+    private final int maxSize;
+    private final long maxBytes;
+    private final boolean softReferences;
+    private final Map<Key, Entry> cache = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Built> clearedReferences = new ReferenceQueue<>();
+    private final AtomicInteger strongSize = new AtomicInteger();
+    private final AtomicLong strongBytes = new AtomicLong();
+
+    public CachingFragmentTemplate(FragmentTemplate delegate, int maxSize) {
+        this(delegate, maxSize, Long.MAX_VALUE, false);
+    }
+
+    public CachingFragmentTemplate(FragmentTemplate delegate, int maxSize, long maxBytes, boolean softReferences) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        this.delegate = delegate;
+        this.maxSize = maxSize;
+        this.maxBytes = maxBytes;
+        this.softReferences = softReferences;
+    }
+
+    @Override
+    public Template build(List<String> macroNames, String viewName, Template baseTemplate) throws IOException {
+        Template fragmentTemplate = getCached(macroNames, baseTemplate);
+        if (fragmentTemplate != null) {
+            return fragmentTemplate;
+        }
+
+        // Not building inside the map's compute methods, as that would hold a lock on part of the map while parsing.
+        // At worst, concurrent misses for the same fragment build it more than once.
+        fragmentTemplate = delegate.build(macroNames, viewName, baseTemplate);
+        Key key = key(macroNames, baseTemplate);
+        Entry entry = new Entry(key, new Built(baseTemplate, fragmentTemplate),
+                TemplateSizes.estimate(fragmentTemplate));
+        strongSize.incrementAndGet();
+        strongBytes.addAndGet(entry.size);
+        Entry replaced = cache.put(key, entry);
+        if (replaced != null) {
+            release(replaced);
+        }
+        removeClearedEntries();
+        enforceLimits();
+        return fragmentTemplate;
+    }
+
+    // Returns null if the fragment isn't cached or was built from a different version of the base template
+    Template getCached(List<String> macroNames, Template baseTemplate) {
+        return getCached(key(macroNames, baseTemplate), baseTemplate);
+    }
+
+    // The same, for callers which keep the key while it matches the base template, so that the lookup doesn't allocate
+    Template getCached(Key key, Template baseTemplate) {
+        Entry entry = cache.get(key);
+        Built built = (entry != null) ? entry.get() : null;
+        return (built != null && built.baseTemplate == baseTemplate) ? built.fragmentTemplate : null;
+    }
+
+    static Key key(List<String> macroNames, Template baseTemplate) {
+        return new Key(baseTemplate.getName(), baseTemplate.getLocale(),
+                baseTemplate.getCustomLookupCondition(), List.copyOf(macroNames));
+    }
+
+    void clear() {
+        cache.values().removeIf(this::release);
+    }
+
+    // Drops the fragments built from the named base templates, e.g. once they're evicted from FreeMarker's cache,
+    // rather than keeping them until the base templates are loaded again
+    void evict(Set<String> templateNames) {
+        cache.values().removeIf(entry -> templateNames.contains(entry.key.templateName()) && release(entry));
+    }
+
+    // The number of entries, including those only softly referenced
+    int size() {
+        return cache.size();
+    }
+
+    // The estimated size of the entries held strongly
+    long bytes() {
+        return strongBytes.get();
+    }
+
+    // The entries which haven't been cleared by the garbage collector, for diagnostics
+    List<EntryInfo> entries() {
+        List<EntryInfo> entries = new ArrayList<>();
+        for (Entry entry : cache.values()) {
+            Built built = entry.get();
+            if (built != null) {
+                entries.add(new EntryInfo(built.fragmentTemplate.getName(), entry.key.templateName(),
+                        entry.key.locale(), entry.size, !entry.isStrong()));
+            }
+        }
+        return entries;
+    }
+
+    // There's no access ordering in a ConcurrentHashMap, so this just demotes whichever entries iterate first.
+    // The expectation is that the limits are sized to comfortably fit every fragment an application uses and are only
+    // there to keep memory bounded when fragment identifiers (or locales) come from somewhere less predictable.
+    private void enforceLimits() {
+        for (Entry entry : cache.values()) {
+            if (strongSize.get() <= maxSize && strongBytes.get() <= maxBytes) {
+                return;
+            }
+            if (!softReferences) {
+                if (cache.remove(entry.key, entry)) {
+                    release(entry);
+                }
+            } else if (entry.demote(clearedReferences)) {
+                strongSize.decrementAndGet();
+                strongBytes.addAndGet(-entry.size);
+            }
+        }
+    }
+
+    private void removeClearedEntries() {
+        Reference<? extends Built> reference;
+        while ((reference = clearedReferences.poll()) != null) {
+            Entry entry = ((SoftEntryReference) reference).entry;
+            cache.remove(entry.key, entry);
+        }
+    }
+
+    // Stops accounting for an entry that's been removed. Returns true so that it can be used in removeIf.
+    private boolean release(Entry entry) {
+        if (entry.discard()) {
+            strongSize.decrementAndGet();
+            strongBytes.addAndGet(-entry.size);
+        }
+        return true;
+    }
+
+
+    record Key(String templateName, Locale locale, Object customLookupCondition, List<String> macroNames) {
+
+        // Whether this is the key for a fragment of the base template, whichever version of it
+        boolean matches(Template baseTemplate) {
+            return templateName.equals(baseTemplate.getName())
+                    && Objects.equals(locale, baseTemplate.getLocale())
+                    && Objects.equals(customLookupCondition, baseTemplate.getCustomLookupCondition());
+        }
+    }
+
+    private record Built(Template baseTemplate, Template fragmentTemplate) {}
+
+    record EntryInfo(String viewName, String templateName, Locale locale, long estimatedBytes, boolean soft) {}
+
+    // Held strongly until it's demoted to a soft reference or discarded
+    private static final class Entry {
+        final Key key;
+        final long size;
+        private volatile Built strong;
+        private volatile SoftEntryReference soft;
+
+        Entry(Key key, Built built, long size) {
+            this.key = key;
+            this.size = size;
+            this.strong = built;
+        }
+
+        Built get() {
+            Built built = strong;
+            if (built != null) {
+                return built;
+            }
+            SoftEntryReference reference = soft;
+            return (reference != null) ? reference.get() : null;
+        }
+
+        boolean isStrong() {
+            return strong != null;
+        }
+
+        // Returns whether the entry was held strongly. The soft reference is set first, so that get never sees neither.
+        synchronized boolean demote(ReferenceQueue<Built> queue) {
+            Built built = strong;
+            if (built == null) {
+                return false;
+            }
+            soft = new SoftEntryReference(built, queue, this);
+            strong = null;
+            return true;
+        }
+
+        // Returns whether the entry was held strongly
+        synchronized boolean discard() {
+            boolean wasStrong = (strong != null);
+            strong = null;
+            soft = null;
+            return wasStrong;
+        }
+    }
+
+    private static final class SoftEntryReference extends SoftReference<Built> {
+        final Entry entry;
+
+        SoftEntryReference(Built built, ReferenceQueue<Built> queue, Entry entry) {
+            super(built, queue);
+            this.entry = entry;
+        }
+    }
+
+}
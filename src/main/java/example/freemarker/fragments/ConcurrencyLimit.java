@@ -0,0 +1,85 @@
+package example.freemarker.fragments;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+// Limits how many renders of a view can run at once, so that a burst of requests for an expensive view (e.g. a large
+// table) can't tie up every request thread and starve the rest of the application. Renders beyond the limit wait,
+// but only up to a maximum number at a time and for up to a maximum time, after which they're rejected.
+// Rejected requests get a 503 response with a Retry-After header and no body, since producing an error page would
+// cost more than the render being shed. For htmx requests, an event is triggered too, so the page can retry.
+class ConcurrencyLimit {
+    static final String REJECTED_EVENT = "fragmentRejected";
+
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final long maxWaitNanos;
+    private final Duration retryAfter;
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public ConcurrencyLimit(int maxConcurrent, int maxQueued, Duration maxWait, Duration retryAfter) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("maxConcurrent must be positive: " + maxConcurrent);
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.retryAfter = retryAfter;
+        this.permits = new Semaphore(maxConcurrent);
+    }
+
+    // Returns false if the render should be rejected, otherwise release must be called once it's finished
+    boolean tryAcquire() throws InterruptedException {
+        if (permits.tryAcquire()) {
+            return true;
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            rejected.incrementAndGet();
+            return false;
+        }
+        try {
+            if (permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS)) {
+                return true;
+            }
+            rejected.incrementAndGet();
+            return false;
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    void release() {
+        permits.release();
+    }
+
+    void reject(HttpServletRequest request, HttpServletResponse response) {
+        long seconds = Math.max(1, (retryAfter.toMillis() + 999) / 1000); // Retry-After only has whole seconds
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setHeader("Retry-After", Long.toString(seconds));
+        if ("true".equals(request.getHeader("HX-Request"))) {
+            response.setHeader("HX-Trigger", "{\"" + REJECTED_EVENT + "\":{\"retryAfter\":" + seconds + "}}");
+        }
+    }
+
+    int getActive() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    int getQueued() {
+        return queued.get();
+    }
+
+    long getRejected() {
+        return rejected.get();
+    }
+
+}
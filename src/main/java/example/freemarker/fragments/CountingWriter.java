@@ -0,0 +1,48 @@
+package example.freemarker.fragments;
+
+import java.io.IOException;
+import java.io.Writer;
+
+// Passes everything through to another writer, while counting the characters written
+class CountingWriter extends Writer {
+    private final Writer out;
+    private long count;
+
+    public CountingWriter(Writer out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        out.write(cbuf, off, len);
+        count += len;
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        out.write(str, off, len);
+        count += len;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        out.write(c);
+        count++;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    // Doesn't close the underlying writer
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    long getCount() {
+        return count;
+    }
+
+}
@@ -0,0 +1,286 @@
+package example.freemarker.fragments;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import freemarker.cache.CacheStorage;
+import freemarker.cache.CacheStorageWithGetSize;
+import freemarker.cache.ConcurrentCacheStorage;
+import freemarker.template.Template;
+
+// Wraps the configuration's cache storage so that cached templates can be found and evicted individually (e.g. when
+// their files change), which TemplateCache only allows for a given name, locale, custom lookup condition and encoding.
+// The storage's values are TemplateCache's private entries, so their templates are read reflectively, which is opt-in
+// since it depends on FreeMarker's internals. Only the templates are indexed, not the entries for missing templates,
+// so the index is bounded by the templates that exist. The index only holds the templates weakly, along with their
+// estimated sizes (see TemplateSizes). When the templates aren't read (or can't be, in another version of FreeMarker)
+// every entry is indexed, without a template or a size, so only the limits by count apply.
+// The storage can also be limited, like MruCacheStorage, by the number of entries held strongly (with the rest only
+// held by the wrapped storage, e.g. SoftCacheStorage's soft references) and by the total number of entries, as well
+// as by the total estimated size of the entries (including those held softly). Unlike MruCacheStorage, enforcing the
+// limits doesn't need a lock, so TemplateCache doesn't lock the storage on every lookup as long as the wrapped storage
+// is concurrent too. The entries over the limits are arbitrary, as for CachingFragmentTemplate.
+final class EvictableCacheStorage implements ConcurrentCacheStorage, CacheStorageWithGetSize {
+    private static final Log logger = LogFactory.getLog(EvictableCacheStorage.class);
+
+    private final CacheStorage delegate;
+    private final boolean readsTemplates;
+    private final int maxStrongSize;
+    private final int maxSize;
+    private final long maxBytes;
+    private final Map<Object, Indexed> templates = new ConcurrentHashMap<>();
+    private final AtomicInteger strongSize = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+
+    // Without limits, so the wrapped storage decides how long entries are kept, reading the templates
+    EvictableCacheStorage(CacheStorage delegate) {
+        this(delegate, true, 0, Integer.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    // The limit by size only applies when reading the templates
+    EvictableCacheStorage(CacheStorage delegate, boolean readTemplates, int maxStrongSize, int maxSize,
+            long maxBytes) {
+        if (maxStrongSize < 0 || maxSize < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException(
+                    "Invalid limits: " + maxStrongSize + " strong, " + maxSize + " total, " + maxBytes + " bytes");
+        }
+        if (readTemplates && TemplateOrExceptionField.FIELD == null) {
+            logger.warn("Can't read the template cache's entries in this version of FreeMarker, "
+                    + "so the template cache is only limited by count");
+        }
+        this.delegate = delegate;
+        this.readsTemplates = readTemplates && TemplateOrExceptionField.FIELD != null;
+        this.maxStrongSize = maxStrongSize;
+        this.maxSize = maxSize;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public Object get(Object key) {
+        Indexed indexed = templates.get(key);
+        Object value = delegate.get(key);
+        if (value == null && indexed != null) {
+            // Dropped by the wrapped storage, e.g. a soft reference being cleared
+            unindex(key, indexed);
+        }
+        return value;
+    }
+
+    // The entry just put is held strongly, like MruCacheStorage does for the most recently used entries
+    @Override
+    public void put(Object key, Object value) {
+        delegate.put(key, value);
+        if (!readsTemplates) {
+            index(key, new Indexed(null, 0, (maxStrongSize > 0) ? value : null));
+            if (strongSize.get() > maxStrongSize || templates.size() > maxSize) {
+                enforceLimits(key);
+            }
+        } else if (getTemplateOrException(value) instanceof Template template) {
+            // TemplateCache puts the same template again each time it finds it hasn't been modified
+            Indexed indexed = templates.get(key);
+            long size = (indexed != null && indexed.template.get() == template)
+                    ? indexed.size : TemplateSizes.estimate(template);
+            index(key, new Indexed(new WeakReference<>(template), size, (maxStrongSize > 0) ? value : null));
+            if (strongSize.get() > maxStrongSize || templates.size() > maxSize || bytes.get() > maxBytes) {
+                enforceLimits(key);
+            }
+        } else {
+            Indexed indexed = templates.get(key);
+            if (indexed != null) {
+                unindex(key, indexed);
+            }
+        }
+    }
+
+    private void index(Object key, Indexed indexed) {
+        bytes.addAndGet(indexed.size);
+        if (indexed.isStrong()) {
+            strongSize.incrementAndGet();
+        }
+        Indexed replaced = templates.put(key, indexed);
+        if (replaced != null) {
+            release(replaced);
+        }
+    }
+
+    private void unindex(Object key, Indexed indexed) {
+        if (templates.remove(key, indexed)) {
+            release(indexed);
+        }
+    }
+
+    private void release(Indexed indexed) {
+        bytes.addAndGet(-indexed.size);
+        if (indexed.demote()) {
+            strongSize.decrementAndGet();
+        }
+    }
+
+    // Keeps the entry just put, since TemplateCache is about to return it anyway.
+    // Templates which have already been garbage collected are unindexed first.
+    private void enforceLimits(Object keptKey) {
+        templates.forEach((key, indexed) -> {
+            if (indexed.template != null && indexed.template.get() == null) {
+                unindex(key, indexed);
+            }
+        });
+        for (Map.Entry<Object, Indexed> entry : templates.entrySet()) {
+            if (entry.getKey().equals(keptKey)) {
+                continue;
+            }
+            if (templates.size() > maxSize || bytes.get() > maxBytes) {
+                delegate.remove(entry.getKey());
+                unindex(entry.getKey(), entry.getValue());
+            } else if (strongSize.get() > maxStrongSize) {
+                if (entry.getValue().demote()) {
+                    strongSize.decrementAndGet();
+                }
+            } else {
+                return;
+            }
+        }
+    }
+
+    // Entries for missing templates and failed loads don't have a template
+    private static Object getTemplateOrException(Object cachedTemplate) {
+        try {
+            return TemplateOrExceptionField.FIELD.get(cachedTemplate);
+        } catch (IllegalAccessException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void remove(Object key) {
+        delegate.remove(key);
+        Indexed indexed = templates.get(key);
+        if (indexed != null) {
+            unindex(key, indexed);
+        }
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+        templates.forEach(this::unindex);
+    }
+
+    // Whether the cached templates are read, so that they can be found and their sizes estimated
+    boolean readsTemplates() {
+        return readsTemplates;
+    }
+
+    // The cached templates by their (opaque) cache keys, which are only known when reading the templates
+    Map<Object, Template> getTemplates() {
+        Map<Object, Template> cached = new HashMap<>();
+        templates.forEach((key, indexed) -> {
+            Template template = (indexed.template != null) ? indexed.template.get() : null;
+            if (template != null) {
+                cached.put(key, template);
+            }
+        });
+        return cached;
+    }
+
+    // The estimated size of the cached templates, which can include some that have been garbage collected
+    // but not yet noticed
+    long bytes() {
+        return bytes.get();
+    }
+
+    // The number of cached templates held strongly
+    int strongSize() {
+        return strongSize.get();
+    }
+
+    // The cached templates which haven't been garbage collected, for diagnostics
+    List<TemplateInfo> entries() {
+        List<TemplateInfo> entries = new ArrayList<>();
+        for (Indexed indexed : templates.values()) {
+            Template template = (indexed.template != null) ? indexed.template.get() : null;
+            if (template != null) {
+                entries.add(new TemplateInfo(template.getName(), template.getLocale(), indexed.size));
+            }
+        }
+        return entries;
+    }
+
+    // Like TemplateCache, this only locks the storage when the wrapped storage isn't concurrent
+    void evict(Object key) {
+        if (isConcurrent()) {
+            remove(key);
+        } else {
+            synchronized (this) {
+                remove(key);
+            }
+        }
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return delegate instanceof ConcurrentCacheStorage && ((ConcurrentCacheStorage) delegate).isConcurrent();
+    }
+
+    @Override
+    public int getSize() {
+        if (delegate instanceof CacheStorageWithGetSize) {
+            return ((CacheStorageWithGetSize) delegate).getSize();
+        }
+        return templates.size();
+    }
+
+
+    // Only looked up once the templates are read, so that nothing is made accessible otherwise
+    private static final class TemplateOrExceptionField {
+        static final Field FIELD = find();
+
+        private static Field find() {
+            try {
+                Field field = Class.forName("freemarker.cache.TemplateCache$CachedTemplate")
+                        .getDeclaredField("templateOrException");
+                field.setAccessible(true);
+                return field;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return null;
+            }
+        }
+    }
+
+    // Holds the wrapped storage's entry strongly until it's demoted, so that it isn't dropped by the wrapped storage
+    private static final class Indexed {
+        final WeakReference<Template> template; // null when the templates aren't read
+        final long size;
+        private volatile Object strongValue;
+
+        Indexed(WeakReference<Template> template, long size, Object strongValue) {
+            this.template = template;
+            this.size = size;
+            this.strongValue = strongValue;
+        }
+
+        boolean isStrong() {
+            return strongValue != null;
+        }
+
+        // Returns whether the entry was held strongly
+        synchronized boolean demote() {
+            boolean wasStrong = (strongValue != null);
+            strongValue = null;
+            return wasStrong;
+        }
+    }
+
+    record TemplateInfo(String name, Locale locale, long estimatedBytes) {}
+
+}
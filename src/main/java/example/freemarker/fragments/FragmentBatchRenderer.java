@@ -0,0 +1,49 @@
+package example.freemarker.fragments;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Map;
+
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.web.servlet.View;
+import org.springframework.web.servlet.ViewResolver;
+
+import freemarker.template.TemplateException;
+
+// Renders a view once for each of a list of values, all into the same writer, e.g. a row for each newly added person:
+//   fragmentBatchRenderer.renderAll("auto/table :: Row", "person", people, response.getWriter());
+// Rather than processing the fragment template for each value, which sets up a new environment and the template's
+// imports every time, it's processed once with the fragment's macros being called for each value in turn (see
+// FragmentMacroCall.processEach). Like FragmentEvents, the model isn't tied to a request, so the view can't use the
+// request, the session or Spring's macro helpers.
+public class FragmentBatchRenderer {
+    private final ViewResolver viewResolver;
+
+    public FragmentBatchRenderer(ViewResolver viewResolver) {
+        this.viewResolver = viewResolver;
+    }
+
+    public String renderAll(String viewName, String attributeName, Iterable<?> values)
+            throws IOException, TemplateException {
+        StringWriter writer = new StringWriter();
+        renderAll(viewName, Map.of(), attributeName, values, writer);
+        return writer.toString();
+    }
+
+    public void renderAll(String viewName, String attributeName, Iterable<?> values, Writer writer)
+            throws IOException, TemplateException {
+        renderAll(viewName, Map.of(), attributeName, values, writer);
+    }
+
+    // The model's other attributes are shared by every render
+    public void renderAll(String viewName, Map<String, ?> model, String attributeName, Iterable<?> values,
+            Writer writer) throws IOException, TemplateException {
+        View view = FreeMarkerAutoFragmentConfig.resolveView(viewResolver, viewName, LocaleContextHolder.getLocale());
+        if (!(view instanceof FreeMarkerAutoFragmentConfig.CustomFreeMarkerView freeMarkerView)) {
+            throw new IllegalArgumentException("Not a FreeMarker view: \"" + viewName + "\"");
+        }
+        freeMarkerView.renderEach(model, attributeName, values, LocaleContextHolder.getLocale(), writer);
+    }
+
+}
@@ -0,0 +1,157 @@
+package example.freemarker.fragments;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import freemarker.template.TemplateException;
+
+// Streams renders of a fragment view as server-sent events, as a controller return value (see FragmentEvents).
+// Each call to sendFragment renders the fragment with the given model and sends it as an event whose data lines are
+// the fragment's output, which is what htmx's sse extension swaps in, e.g. <tbody hx-ext="sse" sse-connect="/rows"
+// sse-swap="Row" hx-swap="beforeend">.
+// Like SseEmitter, other than that the output is rendered straight into the event's text, in a buffer which is reused
+// for every event on the connection, rather than each line becoming a separate piece of data to write.
+// Since the model isn't tied to a request, the fragment can't use the request, the session or Spring's macro helpers.
+public class FragmentEventEmitter extends ResponseBodyEmitter {
+    private static final MediaType TEXT_PLAIN = new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8);
+
+    private final FreeMarkerAutoFragmentConfig.CustomFreeMarkerView view;
+    private final String eventName;
+    private final Locale locale;
+    // Guards the reused buffer. Not synchronized, since rendering can block (e.g. lazily loading model values), which
+    // would pin a virtual thread to its carrier thread.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final StringBuilder event = new StringBuilder(1024);
+    private final EventDataWriter eventData = new EventDataWriter(event);
+
+    FragmentEventEmitter(FreeMarkerAutoFragmentConfig.CustomFreeMarkerView view, String eventName, Locale locale,
+            Duration timeout) {
+        super(timeout.toMillis());
+        this.view = view;
+        this.eventName = eventName;
+        this.locale = locale;
+    }
+
+    public void sendFragment(Map<String, ?> model) throws IOException, TemplateException {
+        lock.lock();
+        try {
+            send(renderEvent(model), TEXT_PLAIN);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // e.g. sendFragment("person", person)
+    public void sendFragment(String attributeName, Object value) throws IOException, TemplateException {
+        sendFragment(Map.of(attributeName, value));
+    }
+
+    // Must hold the lock, since the buffer is reused. The text is copied, as sends before the emitter has been
+    // initialized are held until it has been.
+    String renderEvent(Map<String, ?> model) throws IOException, TemplateException {
+        event.setLength(0);
+        if (eventName != null) {
+            event.append("event:").append(eventName).append('\n');
+        }
+        int dataStart = event.length();
+        eventData.startEvent();
+        view.render(model, locale, eventData);
+        // Output usually ends with a line break, which would otherwise add an empty data line,
+        // but empty output still needs its data line
+        int length = event.length();
+        if (length - 6 >= dataStart && event.charAt(length - 1) == ':' && event.lastIndexOf("\ndata:") == length - 6) {
+            event.setLength(length - 6);
+        }
+        event.append("\n\n");
+        return event.toString();
+    }
+
+    @Override
+    protected void extendResponse(ServerHttpResponse outputMessage) {
+        super.extendResponse(outputMessage);
+        if (outputMessage.getHeaders().getContentType() == null) {
+            outputMessage.getHeaders().setContentType(MediaType.TEXT_EVENT_STREAM);
+        }
+    }
+
+
+    // Writes each line of output as a data line. Any of CRLF, CR and LF ends a line in an event stream,
+    // so each of them is written as LF.
+    private static class EventDataWriter extends Writer {
+        private final StringBuilder event;
+        private boolean lastWasCR;
+
+        EventDataWriter(StringBuilder event) {
+            this.event = event;
+        }
+
+        void startEvent() {
+            event.append("data:");
+            lastWasCR = false;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            int end = off + len;
+            int start = off;
+            for (int i = off; i < end; i++) {
+                char c = cbuf[i];
+                if (c == '\n' || c == '\r') {
+                    event.append(cbuf, start, i - start);
+                    newLine(c);
+                    start = i + 1;
+                } else {
+                    lastWasCR = false;
+                }
+            }
+            event.append(cbuf, start, end - start);
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            int end = off + len;
+            int start = off;
+            for (int i = off; i < end; i++) {
+                char c = str.charAt(i);
+                if (c == '\n' || c == '\r') {
+                    event.append(str, start, i);
+                    newLine(c);
+                    start = i + 1;
+                } else {
+                    lastWasCR = false;
+                }
+            }
+            event.append(str, start, end);
+        }
+
+        @Override
+        public void write(int c) {
+            write(String.valueOf((char) c), 0, 1);
+        }
+
+        private void newLine(char c) {
+            if (c == '\n' && lastWasCR) {
+                lastWasCR = false; // The LF of a CRLF, whose CR already ended the line
+                return;
+            }
+            event.append("\ndata:");
+            lastWasCR = (c == '\r');
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+    }
+
+}
@@ -0,0 +1,48 @@
+package example.freemarker.fragments;
+
+import java.time.Duration;
+import java.util.Locale;
+
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.web.servlet.View;
+import org.springframework.web.servlet.ViewResolver;
+
+// Creates emitters which stream renders of a fragment view as server-sent events (see FragmentEventEmitter), e.g.
+//   @GetMapping("/rows")
+//   public FragmentEventEmitter streamRows() {
+//       FragmentEventEmitter emitter = fragmentEvents.emitter("auto/table :: Row", Duration.ofMinutes(30));
+//       rowUpdates.subscribe(person -> emitter.sendFragment("person", person));
+//       return emitter;
+//   }
+// The view is resolved once, for the current request's locale, so every event reuses its fragment template.
+public class FragmentEvents {
+    private final ViewResolver viewResolver;
+
+    public FragmentEvents(ViewResolver viewResolver) {
+        this.viewResolver = viewResolver;
+    }
+
+    // The events are named after the fragment identifier, e.g. "Row"
+    public FragmentEventEmitter emitter(String viewName, Duration timeout) {
+        FreeMarkerAutoFragmentConfig.CustomFreeMarkerView view = resolveFragmentView(viewName);
+        return new FragmentEventEmitter(view, view.fragmentView.fragmentId(), locale(), timeout);
+    }
+
+    public FragmentEventEmitter emitter(String viewName, String eventName, Duration timeout) {
+        return new FragmentEventEmitter(resolveFragmentView(viewName), eventName, locale(), timeout);
+    }
+
+    private FreeMarkerAutoFragmentConfig.CustomFreeMarkerView resolveFragmentView(String viewName) {
+        View view = FreeMarkerAutoFragmentConfig.resolveView(viewResolver, viewName, locale());
+        if (!(view instanceof FreeMarkerAutoFragmentConfig.CustomFreeMarkerView fragmentView)
+                || fragmentView.fragmentView.fragmentId() == null) {
+            throw new IllegalArgumentException("Not a fragment view: \"" + viewName + "\"");
+        }
+        return fragmentView;
+    }
+
+    private static Locale locale() {
+        return LocaleContextHolder.getLocale();
+    }
+
+}
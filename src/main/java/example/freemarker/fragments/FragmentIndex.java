@@ -0,0 +1,32 @@
+package example.freemarker.fragments;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// The fragment views which the application's code refers to, found at build time so that their fragment templates
+// can all be built when the application starts (see FragmentPrecompiler). The index is generated by a build-time tool
+// which isn't part of the application (see FragmentIndexGenerator in src/build/java).
+final class FragmentIndex {
+    static final String RESOURCE_NAME = "META-INF/fragment-index.txt";
+
+    private FragmentIndex() {
+    }
+
+    // Returns an empty list when there's no index, e.g. when the application is run by an IDE's own build
+    static List<String> load() {
+        try (InputStream in = FragmentIndex.class.getClassLoader().getResourceAsStream(RESOURCE_NAME)) {
+            if (in == null) {
+                return List.of();
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8).lines()
+                    .filter(line -> !line.isBlank())
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read the fragment index", e);
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+package example.freemarker.fragments;
+
+import java.io.IOException;
+import java.util.List;
+
+import freemarker.cache._CacheAPI;
+import freemarker.core.LibraryLoad;
+import freemarker.core.Macro;
+import freemarker.core._FragmentCoreAPI;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+
+// Finds the macros which fragment identifiers refer to, without processing any templates.
+// A dot separates an import's namespace from a macro in it, as when calling a macro.
+// Macros can't be found when they come from imports with non-literal template names or are defined
+// by including another template, and neither can directives from the data model or shared variables.
+final class FragmentMacros {
+
+    private FragmentMacros() {
+    }
+
+    // Returns null if the macro can't be found
+    @SuppressWarnings("deprecation")
+    static Macro find(String macroName, Template template) throws IOException {
+        int index = macroName.indexOf('.');
+        if (index == -1) {
+            return (Macro) template.getMacros().get(macroName);
+        }
+        Template importedTemplate = findImportedTemplate(macroName.substring(0, index), template);
+        return (importedTemplate == null) ? null : find(macroName.substring(index + 1), importedTemplate);
+    }
+
+    // Returns null if there's no such import or its template can't be determined
+    @SuppressWarnings("deprecation")
+    static Template findImportedTemplate(String namespace, Template template) throws IOException {
+        LibraryLoad libraryLoad = findImport(namespace, template);
+        return (libraryLoad == null) ? null : getImportedTemplate(libraryLoad, template);
+    }
+
+    // Returns null if there's no such import
+    @SuppressWarnings("deprecation")
+    static LibraryLoad findImport(String namespace, Template template) {
+        @SuppressWarnings("unchecked")
+        List<LibraryLoad> imports = (List<LibraryLoad>) template.getImports();
+        for (LibraryLoad ll : imports) {
+            if (namespace.equals(_FragmentCoreAPI.getNamespaceVariable(ll))) {
+                return ll;
+            }
+        }
+        return null;
+    }
+
+    // Returns null if the template name isn't a literal or the template doesn't exist
+    @SuppressWarnings("deprecation")
+    static Template getImportedTemplate(LibraryLoad libraryLoad, Template template) throws IOException {
+        String templateName = _FragmentCoreAPI.getLiteralTemplateName(libraryLoad);
+        if (templateName == null) {
+            return null;
+        }
+        Configuration cfg = template.getConfiguration();
+        // Same resolution of relative names as when processing the import
+        String fullTemplateName =
+                _CacheAPI.toRootBasedName(cfg.getTemplateNameFormat(), template.getName(), templateName);
+        return cfg.getTemplate(fullTemplateName, template.getLocale(), template.getCustomLookupCondition(),
+                template.getEncoding(), true, true);
+    }
+
+}
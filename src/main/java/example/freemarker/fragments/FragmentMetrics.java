@@ -0,0 +1,108 @@
+package example.freemarker.fragments;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import freemarker.template.TemplateException;
+
+// Micrometer meters for a single fragment view, tagged by the view and fragment identifier.
+// The meters are created up front, since a view instance is reused for every request with the same view name.
+class FragmentMetrics {
+    private static final String PREFIX = "freemarker.fragment.";
+
+    private final MeterRegistry registry;
+    private final Tags tags;
+    private final Timer buildTimer;
+    private final Timer renderTimer;
+    private final DistributionSummary outputSize;
+    private final Counter cacheHits;
+    private final Counter cacheMisses;
+    private final Counter outputCacheHits;
+    private final Counter outputCacheMisses;
+    private final Counter templateFailures;
+    private final Counter ioFailures;
+    private final Counter otherFailures;
+
+    public FragmentMetrics(MeterRegistry registry, String viewName, String fragmentId) {
+        this.registry = registry;
+        this.tags = Tags.of("view", viewName, "fragment", fragmentId);
+        this.buildTimer = Timer.builder(PREFIX + "build")
+                .description("Time taken to build fragment templates")
+                .tags(tags)
+                .register(registry);
+        this.renderTimer = Timer.builder(PREFIX + "render")
+                .description("Time taken to render fragments")
+                .tags(tags)
+                .register(registry);
+        this.outputSize = DistributionSummary.builder(PREFIX + "output")
+                .description("Size of rendered fragments")
+                .baseUnit("characters")
+                .tags(tags)
+                .register(registry);
+        this.cacheHits = cacheCounter("hit");
+        this.cacheMisses = cacheCounter("miss");
+        this.outputCacheHits = outputCacheCounter("hit");
+        this.outputCacheMisses = outputCacheCounter("miss");
+        this.templateFailures = failureCounter("template");
+        this.ioFailures = failureCounter("io");
+        this.otherFailures = failureCounter("other");
+    }
+
+    private Counter cacheCounter(String result) {
+        return Counter.builder(PREFIX + "cache")
+                .description("Fragment template cache lookups")
+                .tags(tags).tag("result", result)
+                .register(registry);
+    }
+
+    private Counter outputCacheCounter(String result) {
+        return Counter.builder(PREFIX + "output.cache")
+                .description("Fragment output cache lookups")
+                .tags(tags).tag("result", result)
+                .register(registry);
+    }
+
+    private Counter failureCounter(String cause) {
+        return Counter.builder(PREFIX + "failures")
+                .description("Fragments which failed to build or render")
+                .tags(tags).tag("cause", cause)
+                .register(registry);
+    }
+
+    void recordCacheHit() {
+        cacheHits.increment();
+    }
+
+    void recordBuild(long nanos) {
+        cacheMisses.increment();
+        buildTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordOutputCacheLookup(boolean hit) {
+        (hit ? outputCacheHits : outputCacheMisses).increment();
+    }
+
+    void recordRender(long nanos, long outputChars) {
+        renderTimer.record(nanos, TimeUnit.NANOSECONDS);
+        outputSize.record(outputChars);
+    }
+
+    // Counted by the kind of failure rather than the exception's type, so that the tags are a fixed set,
+    // e.g. "template" for an InvalidReferenceException when the fragment macro doesn't exist.
+    void recordFailure(Throwable failure) {
+        if (failure instanceof TemplateException) {
+            templateFailures.increment();
+        } else if (failure instanceof IOException) {
+            ioFailures.increment();
+        } else {
+            otherFailures.increment();
+        }
+    }
+
+}
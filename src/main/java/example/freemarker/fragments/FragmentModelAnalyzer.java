@@ -0,0 +1,180 @@
+package example.freemarker.fragments;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.web.servlet.View;
+import org.springframework.web.servlet.ViewResolver;
+
+import freemarker.core.FragmentVariableScan;
+import freemarker.core.LibraryLoad;
+import freemarker.core.Macro;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+
+// Finds which data model attributes a view can read without rendering it, so that controllers can skip loading data
+// which a fragment doesn't use, e.g. if (needs.needs("people")) { model.addAttribute("people", loadPeople()); }
+// For a fragment view, that's what its macros read, following the macros they call and the top-level content of
+// the libraries they use. For any other view, it's the template's top-level content along with what that calls.
+// Variables from the configuration's shared variables and auto-imports aren't attributes and so aren't included.
+// The analysis is cached by each view until its base template is reloaded (see FragmentVariableScan for details).
+public class FragmentModelAnalyzer {
+    private final ViewResolver viewResolver;
+
+    public FragmentModelAnalyzer(ViewResolver viewResolver) {
+        this.viewResolver = viewResolver;
+    }
+
+    // For the current request's locale
+    public FragmentNeeds fragmentNeeds(String viewName) {
+        return fragmentNeeds(viewName, LocaleContextHolder.getLocale());
+    }
+
+    public FragmentNeeds fragmentNeeds(String viewName, Locale locale) {
+        View view = FreeMarkerAutoFragmentConfig.resolveView(viewResolver, viewName, locale);
+        if (view instanceof FreeMarkerAutoFragmentConfig.CustomFreeMarkerView) {
+            try {
+                return ((FreeMarkerAutoFragmentConfig.CustomFreeMarkerView) view).fragmentNeeds(locale);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        // e.g. a redirect or another type of view, so it's unknown what it could need
+        return new FragmentNeeds(Set.of(), false);
+    }
+
+    // The macro names are null to analyze the whole template
+    @SuppressWarnings("deprecation")
+    static FragmentNeeds analyze(Template baseTemplate, List<String> macroNames) throws IOException {
+        Analysis analysis = new Analysis(baseTemplate.getConfiguration());
+        if (macroNames == null) {
+            analysis.visitTemplate(baseTemplate);
+        } else {
+            analysis.visitImports(baseTemplate);
+            for (String macroName : macroNames) {
+                Macro macro = FragmentMacros.find(macroName, baseTemplate);
+                if (macro != null) {
+                    analysis.visitMacro(macro, Set.of());
+                } else {
+                    analysis.complete = false;
+                }
+            }
+        }
+        return new FragmentNeeds(analysis.attributes, analysis.complete);
+    }
+
+
+    @SuppressWarnings("deprecation")
+    private static class Analysis {
+        private final Configuration cfg;
+        private final Set<String> attributes = new LinkedHashSet<>();
+        private boolean complete = true;
+        private final Set<Template> visitedTemplates = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final Map<Macro, FragmentVariableScan> macroScans = new IdentityHashMap<>();
+        // The parameters of each visited macro whose defaults have been visited
+        private final Map<Macro, Set<String>> visitedDefaults = new IdentityHashMap<>();
+
+        Analysis(Configuration cfg) {
+            this.cfg = cfg;
+        }
+
+        // The template's top-level content, which is processed when it's the main template or when it's imported
+        void visitTemplate(Template template) throws IOException {
+            if (visitedTemplates.add(template)) {
+                visitImports(template);
+                visitScan(FragmentVariableScan.scanTopLevel(template), template);
+            }
+        }
+
+        // Conservatively includes every import, whether or not it's lazy or used
+        void visitImports(Template template) throws IOException {
+            @SuppressWarnings("unchecked")
+            List<LibraryLoad> imports = (List<LibraryLoad>) template.getImports();
+            for (LibraryLoad ll : imports) {
+                Template library = FragmentMacros.getImportedTemplate(ll, template);
+                if (library != null) {
+                    visitTemplate(library);
+                } else {
+                    complete = false;
+                }
+            }
+        }
+
+        void visitCall(FragmentVariableScan.Call call, Template template) throws IOException {
+            Macro macro = resolve(call.name(), template);
+            if (macro != null) {
+                visitMacro(macro, call.argumentNames());
+            } else if (isNamespace(call.name(), template)) {
+                complete = false; // e.g. a macro assigned to a variable in the library
+            }
+        }
+
+        void visitMacro(Macro macro, Set<String> argumentNames) throws IOException {
+            FragmentVariableScan scan = macroScans.get(macro);
+            if (scan == null) {
+                scan = FragmentVariableScan.scanMacro(macro);
+                macroScans.put(macro, scan);
+                visitScan(scan, macro.getTemplate());
+            }
+            Set<String> defaults = visitedDefaults.computeIfAbsent(macro, m -> new LinkedHashSet<>());
+            for (Map.Entry<String, Set<String>> entry : scan.getParameterDefaultReferences().entrySet()) {
+                // Arguments passed by position could be for any of the parameters
+                boolean defaulted = argumentNames == null || !argumentNames.contains(entry.getKey());
+                if (defaulted && defaults.add(entry.getKey())) {
+                    for (String reference : entry.getValue()) {
+                        visitReference(reference, macro.getTemplate());
+                    }
+                }
+            }
+        }
+
+        private void visitScan(FragmentVariableScan scan, Template template) throws IOException {
+            complete &= !scan.isDynamic();
+            for (String reference : scan.getReferences()) {
+                visitReference(reference, template);
+            }
+            for (FragmentVariableScan.Call call : scan.getCalls()) {
+                visitCall(call, template);
+            }
+        }
+
+        // A reference to a macro or function (rather than a call) could be used to call it with any arguments
+        private void visitReference(String path, Template template) throws IOException {
+            Macro macro = resolve(path, template);
+            if (macro != null) {
+                visitMacro(macro, null);
+            }
+        }
+
+        // Returns the macro the path refers to, recording the attribute it reads if it's not a macro or namespace
+        @SuppressWarnings("deprecation")
+        private Macro resolve(String path, Template template) throws IOException {
+            int index = path.indexOf('.');
+            String name = (index == -1) ? path : path.substring(0, index);
+            if (template.getMacros().containsKey(name)) {
+                return (index == -1) ? (Macro) template.getMacros().get(name) : null;
+            }
+            if (FragmentMacros.findImport(name, template) != null) {
+                return (index == -1) ? null : FragmentMacros.find(path, template);
+            }
+            if (!cfg.getSharedVariableNames().contains(name) && !cfg.getAutoImports().containsKey(name)) {
+                attributes.add(name);
+            }
+            return null;
+        }
+
+        private static boolean isNamespace(String path, Template template) {
+            int index = path.indexOf('.');
+            return index != -1 && FragmentMacros.findImport(path.substring(0, index), template) != null;
+        }
+    }
+
+}
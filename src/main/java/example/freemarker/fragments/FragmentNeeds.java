@@ -0,0 +1,19 @@
+package example.freemarker.fragments;
+
+import java.util.Set;
+
+// The data model attributes which a view (or a fragment of it) can read, as found by FragmentModelAnalyzer.
+// When the analysis is incomplete, the attributes are only the ones that could be found and so any attribute could be
+// needed. The attributes can also include ones which turn out not to be read, e.g. those only used in conditional
+// content, or those which the template assigns to before reading them.
+public record FragmentNeeds(Set<String> attributes, boolean complete) {
+
+    public FragmentNeeds {
+        attributes = Set.copyOf(attributes);
+    }
+
+    public boolean needs(String attribute) {
+        return !complete || attributes.contains(attribute);
+    }
+
+}
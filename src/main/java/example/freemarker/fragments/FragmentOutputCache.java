@@ -0,0 +1,118 @@
+package example.freemarker.fragments;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.util.DigestUtils;
+
+import freemarker.template.Template;
+
+// Caches the rendered output of fragments, keyed by the view name, locale and the values of the model attributes which
+// the fragment reads (see FragmentModelAnalyzer). The key holds fingerprints of the values taken when the output is
+// looked up (see fingerprint), rather than the model's objects, so that the key doesn't keep them alive and changes to
+// them made afterwards aren't served the old output.
+// Each output has an ETag, generated like Spring's ShallowEtagHeaderFilter does, so clients that already have the
+// output can be sent a 304 Not Modified response instead. The fragment template is kept with the output, so output
+// rendered before the template was reloaded isn't used. Since output can depend on more than the model attributes
+// (e.g. the current time), entries expire after a TTL. Eviction is arbitrary, as for CachingFragmentTemplate.
+class FragmentOutputCache {
+    static final Object UNCACHEABLE = new Object();
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final Map<Key, Output> cache = new ConcurrentHashMap<>();
+
+    public FragmentOutputCache(int maxSize, Duration ttl) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    // Returns null if there's no output for the key, it's expired or it was rendered by a different template
+    Output get(Key key, Template template) {
+        Output output = cache.get(key);
+        if (output == null || output.template() != template || System.nanoTime() - output.createdAt() >= ttlNanos) {
+            return null;
+        }
+        return output;
+    }
+
+    Output put(Key key, Template template, String content) {
+        Output output = new Output(template, content, generateETag(content), System.nanoTime());
+        if (!cache.containsKey(key)) {
+            evictIfFull();
+        }
+        cache.put(key, output);
+        return output;
+    }
+
+    int size() {
+        return cache.size();
+    }
+
+    private void evictIfFull() {
+        Iterator<Key> keys = cache.keySet().iterator();
+        while (cache.size() >= maxSize && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    // Returns a copy of the value with value-based equals/hashCode, or UNCACHEABLE if it has none (e.g. a JavaBean,
+    // which is compared by identity), so that output which used it isn't cached. Immutable scalars are used as they are
+    // and collections, maps and arrays are copied with fingerprints of their contents, in their iteration order.
+    static Object fingerprint(Object value) {
+        if (value == null || value instanceof String || value instanceof Boolean || value instanceof Character
+                || value instanceof Enum<?> || value instanceof Locale || isImmutableNumber(value)
+                || value instanceof TemporalAccessor && value.getClass().getPackageName().startsWith("java.time")) {
+            return value;
+        }
+        List<Object> contents = new ArrayList<>();
+        if (value instanceof Collection<?> collection) {
+            for (Object item : collection) {
+                contents.add(fingerprint(item));
+            }
+        } else if (value instanceof Object[] array) {
+            for (Object item : array) {
+                contents.add(fingerprint(item));
+            }
+        } else if (value instanceof Map<?, ?> map) {
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                contents.add(fingerprint(entry.getKey()));
+                contents.add(fingerprint(entry.getValue()));
+            }
+        } else {
+            return UNCACHEABLE;
+        }
+        return contents.contains(UNCACHEABLE) ? UNCACHEABLE : contents;
+    }
+
+    private static boolean isImmutableNumber(Object value) {
+        return value instanceof Integer || value instanceof Long || value instanceof Double || value instanceof Float
+                || value instanceof Short || value instanceof Byte
+                || value instanceof BigDecimal || value instanceof BigInteger;
+    }
+
+    private static String generateETag(String content) {
+        return "\"0" + DigestUtils.md5DigestAsHex(content.getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
+
+
+    // The attribute values are fingerprints, which are null for attributes that are in the model with a null value
+    record Key(String viewName, Locale locale, Map<String, Object> attributes) {}
+
+    record Output(Template template, String content, String etag, long createdAt) {}
+
+}
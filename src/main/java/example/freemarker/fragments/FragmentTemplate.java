@@ -3,19 +3,30 @@ package example.freemarker.fragments;
 import static freemarker.template.Configuration.*;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.regex.Pattern;
 
+import freemarker.core.FragmentMacroCall;
 import freemarker.core.LibraryLoad;
 import freemarker.core.Macro;
+import freemarker.core.TemplateElement;
 import freemarker.template.Template;
 
 abstract class FragmentTemplate {
     private static final Pattern ESCAPE_CHARS = Pattern.compile("[-:#]");
 
 
-    abstract Template build(String macroName, String viewName, Template baseTemplate) throws IOException;
+    // The macros are called in order, within the same template processing,
+    // e.g. to render multiple htmx out-of-band swaps in a single response.
+    abstract Template build(List<String> macroNames, String viewName, Template baseTemplate) throws IOException;
+
+    Template build(String macroName, String viewName, Template baseTemplate) throws IOException {
+        return build(List.of(macroName), viewName, baseTemplate);
+    }
 
 
     // This implementation only writes the chosen macro's output to the page,
@@ -29,16 +40,20 @@ abstract class FragmentTemplate {
     //    non-fragment templates to not be forced to have top level content be in a macro.
     static class SemiAutomatic extends FragmentTemplate {
         @Override
-        public Template build(String macroName, String viewName, Template baseTemplate) throws IOException {
+        public Template build(List<String> macroNames, String viewName, Template baseTemplate) throws IOException {
             final String namespace = "$__auto_invoke__$";
             boolean squareBrackets = baseTemplate.getActualTagSyntax() == SQUARE_BRACKET_TAG_SYNTAX;
             char tagStart = squareBrackets ? '[' : '<';
             char tagEnd   = squareBrackets ? ']' : '>';
 
-            String templateText =
-                    tagStart + "#import \"/" + baseTemplate.getName() + "\" as " + namespace + tagEnd +
-                    tagStart + "@" + namespace + "." + escape(macroName) + " /" + tagEnd;
-            return newTemplate(templateText, viewName, baseTemplate);
+            StringBuilder templateText = new StringBuilder()
+                    .append(tagStart).append("#import \"/").append(baseTemplate.getName()).append("\" as ")
+                    .append(namespace).append(tagEnd);
+            for (String macroName : macroNames) {
+                templateText.append(tagStart).append('@').append(namespace).append('.').append(escape(macroName))
+                        .append(" /").append(tagEnd);
+            }
+            return newTemplate(templateText.toString(), viewName, baseTemplate);
         }
     }
 
@@ -66,8 +81,8 @@ abstract class FragmentTemplate {
 
         @Override
         @SuppressWarnings("deprecation")
-        public Template build(String macroName, String viewName, Template baseTemplate) throws IOException {
-            String templateText = buildTemplateText(macroName, baseTemplate);
+        public Template build(List<String> macroNames, String viewName, Template baseTemplate) throws IOException {
+            String templateText = buildTemplateText(macroNames, baseTemplate);
 
             Template fragmentTemplate = newTemplate(templateText, viewName, baseTemplate);
             if (INCLUDE_TEMPLATE_IMPORTS_IN_FRAGMENT && FORCE_LAZY_IMPORTS_IN_FRAGMENT) {
@@ -84,7 +99,7 @@ abstract class FragmentTemplate {
         }
 
         @SuppressWarnings("deprecation")
-        private String buildTemplateText(String macroName, Template baseTemplate) {
+        private String buildTemplateText(List<String> macroNames, Template baseTemplate) {
             StringBuilder builder = new StringBuilder();
             boolean squareBrackets = baseTemplate.getActualTagSyntax() == SQUARE_BRACKET_TAG_SYNTAX;
 
@@ -111,10 +126,12 @@ abstract class FragmentTemplate {
                     builder.append("</#if>");
                 }
             }
-            if (squareBrackets) {
-                builder.append("[@").append(escape(macroName)).append(" /]");
-            } else {
-                builder.append("<@").append(escape(macroName)).append(" />");
+            for (String macroName : macroNames) {
+                if (squareBrackets) {
+                    builder.append("[@").append(escape(macroName)).append(" /]");
+                } else {
+                    builder.append("<@").append(escape(macroName)).append(" />");
+                }
             }
 
             return builder.toString();
@@ -122,6 +139,77 @@ abstract class FragmentTemplate {
     }
 
 
+    // Equivalent to the FullyAutomatic implementation, except that rather than generating the text of a template to
+    // call the macro and then parsing it, the fragment template directly invokes the macro (see FragmentMacroCall).
+    // The same caveats apply regarding template-level include directives and deprecated FreeMarker methods.
+    static class DirectInvocation extends FragmentTemplate {
+        private static final boolean INCLUDE_TEMPLATE_IMPORTS_IN_FRAGMENT = true;
+        private static final boolean FORCE_LAZY_IMPORTS_IN_FRAGMENT = true;
+        private final String preFragmentAutoMacro;
+        private final boolean shareMacroLibraries;
+
+        public DirectInvocation() {
+            this(null);
+        }
+        public DirectInvocation(String autoCallMacro) {
+            this(autoCallMacro, false);
+        }
+        // When sharing macro libraries, imports of libraries without side effects are set up
+        // from a template shared between renders (see SharedLibrary).
+        public DirectInvocation(String autoCallMacro, boolean shareMacroLibraries) {
+            this.preFragmentAutoMacro = autoCallMacro;
+            this.shareMacroLibraries = shareMacroLibraries;
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public Template build(List<String> macroNames, String viewName, Template baseTemplate) throws IOException {
+            @SuppressWarnings("unchecked")
+            List<LibraryLoad> libraryLoads = INCLUDE_TEMPLATE_IMPORTS_IN_FRAGMENT
+                    ? (List<LibraryLoad>) baseTemplate.getImports() : List.of();
+            List<TemplateElement> imports = new ArrayList<>(libraryLoads.size());
+            for (LibraryLoad ll : libraryLoads) {
+                imports.add(shareMacroLibraries ? SharedLibrary.share(ll, baseTemplate) : ll);
+            }
+
+            Template fragmentTemplate =
+                    new MacroCallTemplate(viewName, baseTemplate, imports, preFragmentAutoMacro, macroNames);
+            if (INCLUDE_TEMPLATE_IMPORTS_IN_FRAGMENT && FORCE_LAZY_IMPORTS_IN_FRAGMENT) {
+                fragmentTemplate.setLazyImports(true);
+            }
+            @SuppressWarnings("unchecked")
+            Collection<Macro> macros = (Collection<Macro>) baseTemplate.getMacros().values();
+            for (Macro macro : macros) {
+                fragmentTemplate.addMacro(macro);
+            }
+            return fragmentTemplate;
+        }
+
+        // The processing Environment visits whatever the template reports as its root element,
+        // so replacing it means the template doesn't need any text.
+        @SuppressWarnings("deprecation")
+        private static class MacroCallTemplate extends Template {
+            private final TemplateElement rootElement;
+
+            MacroCallTemplate(String name, Template baseTemplate, List<TemplateElement> imports,
+                    String preFragmentMacro, List<String> macroNames) throws IOException {
+                super(name, null,
+                        Reader.nullReader(),
+                        baseTemplate.getConfiguration(),
+                        baseTemplate.getParserConfiguration(),
+                        baseTemplate.getEncoding());
+                this.rootElement = new FragmentMacroCall(this, imports, preFragmentMacro, macroNames);
+            }
+
+            @Override
+            @SuppressWarnings("deprecation")
+            public TemplateElement getRootTreeNode() {
+                return rootElement;
+            }
+        }
+    }
+
+
     private static Template newTemplate(
             String templateText, String viewName, Template baseTemplate) throws IOException {
         return new Template(
@@ -0,0 +1,121 @@
+package example.freemarker.fragments;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import freemarker.template.Template;
+
+// What the servlet and reactive fragment configurations have in common: the fragment view names, and building fragment
+// templates with the fragment template cache that they share. Neither depends on the web stack.
+final class FragmentViews {
+    static final String VIEW_FRAGMENT_SEPARATOR = " :: "; // Same as used by Thymeleaf templating
+    private static final String MULTIPLE_FRAGMENTS_SEPARATOR = ","; // e.g. "view :: Row, Counter"
+
+    private static final boolean TRANSLATE_MACRO_NAMES_ENABLED = false;
+    // Fragment templates multiply by views, fragments and locales, so are limited by count and estimated size, with
+    // those over the limits either dropped or kept with soft references (see CachingFragmentTemplate)
+    private static final int FRAGMENT_TEMPLATE_CACHE_MAX_SIZE = 1000;
+    private static final long FRAGMENT_TEMPLATE_CACHE_MAX_BYTES = 16L * 1024 * 1024;
+    private static final boolean FRAGMENT_TEMPLATE_CACHE_SOFT_REFERENCES = true;
+    // When enabled, fragment templates call their macros directly rather than generating the text of a template which
+    // calls them and parsing it (see FragmentTemplate.DirectInvocation). This replaces the root element of the fragment
+    // template, which depends on FreeMarker internals rather than its public API (see the freemarker.core package), so
+    // it's opt-in and may need updating along with FreeMarker. Batch rendering only sets a fragment up once with it.
+    private static final boolean DIRECT_MACRO_INVOCATION_ENABLED = false;
+    // Libraries which only define macros (and import other such libraries) are set up without being looked up and
+    // processed for every render, but are then imported whether or not the fragment uses them (see SharedLibrary).
+    // Each render still gets its own namespace for the library, with the library's macros defined in it.
+    // Only applies with direct macro invocation.
+    private static final boolean SHARED_MACRO_LIBRARIES_ENABLED = false;
+    static final CachingFragmentTemplate FRAGMENT_TEMPLATE_BUILDER = new CachingFragmentTemplate(
+            DIRECT_MACRO_INVOCATION_ENABLED
+                    ? new FragmentTemplate.DirectInvocation(null, SHARED_MACRO_LIBRARIES_ENABLED)
+                    : new FragmentTemplate.FullyAutomatic(),
+            FRAGMENT_TEMPLATE_CACHE_MAX_SIZE, FRAGMENT_TEMPLATE_CACHE_MAX_BYTES,
+            FRAGMENT_TEMPLATE_CACHE_SOFT_REFERENCES);
+    private static final String DEFAULT_MACRO = null;
+
+    private FragmentViews() {
+    }
+
+    // Returns the view's fragment template from the shared cache, building it if it isn't cached
+    static Template getFragmentTemplate(FragmentViewName fragmentView, CachingFragmentTemplate.Key key,
+            Template baseTemplate, FragmentMetrics metrics) throws IOException {
+        Template fragmentTemplate = FRAGMENT_TEMPLATE_BUILDER.getCached(key, baseTemplate);
+        if (fragmentTemplate != null) {
+            if (metrics != null) {
+                metrics.recordCacheHit();
+            }
+            return fragmentTemplate;
+        }
+        long start = System.nanoTime();
+        try {
+            fragmentTemplate = FRAGMENT_TEMPLATE_BUILDER.build(
+                    fragmentView.macroNames(), fragmentView.viewName(), baseTemplate);
+        } catch (IOException | RuntimeException e) {
+            if (metrics != null) {
+                metrics.recordFailure(e);
+            }
+            throw e;
+        }
+        if (metrics != null) {
+            metrics.recordBuild(System.nanoTime() - start);
+        }
+        return fragmentTemplate;
+    }
+
+
+    // A view name split into the template's view name and the fragment identifier(s), with the macro names to call
+    // already separated and translated. The macro names are null when the full template should be rendered.
+    record FragmentViewName(String viewName, String baseViewName, String fragmentId, List<String> macroNames) {
+
+        static FragmentViewName parse(String viewName) {
+            return parse(viewName, TRANSLATE_MACRO_NAMES_ENABLED);
+        }
+
+        // Fails for view names with an empty template or macro name, e.g. "view :: Row," which is probably a mistake
+        static FragmentViewName parse(String viewName, boolean translateMacroNames) {
+            String baseViewName = viewName;
+            String fragmentId = null;
+            int index = viewName.indexOf(VIEW_FRAGMENT_SEPARATOR);
+            if (index != -1) {
+                fragmentId = viewName.substring(index + VIEW_FRAGMENT_SEPARATOR.length());
+                baseViewName = viewName.substring(0, index);
+            }
+            if (baseViewName.isBlank()) {
+                throw new IllegalArgumentException("No template in fragment view name \"" + viewName + "\"");
+            }
+
+            String fragment = (fragmentId != null || DEFAULT_MACRO == null) ? fragmentId : DEFAULT_MACRO;
+            List<String> macroNames = null;
+            if (fragment != null) {
+                macroNames = Stream.of(fragment.split(MULTIPLE_FRAGMENTS_SEPARATOR, -1))
+                        .map(String::trim)
+                        .map(macroName -> transformMacroName(macroName, translateMacroNames))
+                        .collect(Collectors.toUnmodifiableList());
+                if (macroNames.contains("")) {
+                    throw new IllegalArgumentException("Empty macro name in fragment view name \"" + viewName + "\"");
+                }
+            }
+            return new FragmentViewName(viewName, baseViewName, fragmentId, macroNames);
+        }
+
+        static String transformMacroName(String fragmentId) {
+            return transformMacroName(fragmentId, TRANSLATE_MACRO_NAMES_ENABLED);
+        }
+
+        static String transformMacroName(String fragmentId, boolean translateMacroNames) {
+            if (translateMacroNames) { // e.g. "my-fragment" to "MyFragment"
+                // Will also capitalize when delimiter not found.
+                fragmentId = Stream.of(fragmentId.split("[-_]"))
+                        .filter(s -> !s.isEmpty())
+                        .map(s -> Character.toUpperCase(s.charAt(0)) + s.substring(1))
+                        .collect(Collectors.joining());
+            }
+            return fragmentId;
+        }
+    }
+
+}
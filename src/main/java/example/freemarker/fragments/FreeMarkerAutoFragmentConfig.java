@@ -1,77 +1,572 @@
 package example.freemarker.fragments;
 
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.boot.autoconfigure.freemarker.FreeMarkerProperties;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.servlet.View;
+import org.springframework.web.servlet.ViewResolver;
+import org.springframework.web.servlet.support.RequestContextUtils;
 import org.springframework.web.servlet.view.AbstractUrlBasedView;
+import org.springframework.web.servlet.view.freemarker.FreeMarkerConfig;
 import org.springframework.web.servlet.view.freemarker.FreeMarkerView;
 import org.springframework.web.servlet.view.freemarker.FreeMarkerViewResolver;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import example.freemarker.fragments.FragmentViews.FragmentViewName;
+
+import freemarker.cache.SoftCacheStorage;
+import freemarker.core.FragmentMacroCall;
+import freemarker.core.ManualFragmentDispatch;
+import freemarker.template.SimpleHash;
 import freemarker.template.Template;
+import freemarker.template.TemplateException;
 
 @Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class FreeMarkerAutoFragmentConfig {
-    private static final String VIEW_FRAGMENT_SEPARATOR = " :: "; // Same as used by Thymeleaf templating
+    // When enabled, views without a fragment identifier whose model has the manual approach's fragment attribute
+    // (see IMPL_NOTES) are rendered as the fragment view for the macro that the template's top-level if/elseif chain
+    // calls for the attribute's value, e.g. "manual/table :: Row" for "row" (see ManualFragmentDispatch), rather than
+    // evaluating the template. Values the chain doesn't simply map to a macro (e.g. unknown fragments) aren't routed.
+    // It's opt-in since it changes how existing templates are rendered, based on reading their (internal) AST.
+    private static final boolean MANUAL_FRAGMENT_ROUTING_ENABLED = false;
+    private static final String MANUAL_FRAGMENT_ATTRIBUTE = "FRAGMENT";
+
+    // When enabled, fragment output is encoded into a reusable buffer which is sent to the client whenever it fills,
+    // rather than when the servlet container's response buffer does. Templates can also add explicit flush points
+    // using the flush directive. Note that once output has been flushed, errors can no longer be rendered as an
+    // error page, and so the client will receive partial output.
+    private static final boolean STREAMING_FRAGMENTS_ENABLED = false;
+    // When enabled (and not streaming), fragment output is still encoded into a reusable buffer and written to the
+    // response's output stream, but only written whenever the buffer fills, so the servlet container's response
+    // buffer decides when the response is sent as usual. This avoids the encoding overhead of the response's writer
+    // (see StreamingWriter), which is significant for fragments made up of many short escaped values, e.g. rows.
+    // It's opt-in since it bypasses the response's writer, e.g. one wrapped by a filter to transform the output.
+    // When the response's writer is already in use, so the output stream can't be, fragments are written as usual.
+    private static final boolean DIRECT_FRAGMENT_OUTPUT_ENABLED = false;
+    private static final int STREAMING_BUFFER_SIZE = 8 * 1024;
+    private static final BufferPool STREAMING_BUFFER_POOL = new BufferPool(STREAMING_BUFFER_SIZE, 64);
+
+    // When enabled, the output of fragments is cached by the values of the model attributes they read, along with an
+    // ETag so that clients which already have the output are sent a 304 Not Modified response (see
+    // FragmentOutputCache).
+    // Only fragments whose attributes can all be found (see FragmentModelAnalyzer) and are all in the model are cached,
+    // and only when the attributes' values can be compared by value, e.g. strings, numbers and lists of them.
+    // Cached fragments are rendered to a string first, so aren't streamed.
+    private static final boolean FRAGMENT_OUTPUT_CACHE_ENABLED = false;
+    private static final FragmentOutputCache FRAGMENT_OUTPUT_CACHE =
+            new FragmentOutputCache(1000, Duration.ofMinutes(1));
+
+    // When enabled, pages (i.e. views without a fragment identifier) render the macro calls marked with the
+    // parallel fragment directive concurrently on the executor, e.g. <@parallelFragment name="Sidebar" />, which is
+    // for components whose data is slow to load (see ParallelFragments). Fragment views call the marked macros as
+    // usual. The whole page is buffered before being written, since its fragments are written in order. The directive
+    // is only in the model when enabled. The executor has a bounded number of threads and queue, and once both are
+    // full the page renders the fragment itself, so a burst of pages degrades to rendering them serially.
+    private static final boolean PARALLEL_FRAGMENTS_ENABLED = false;
+    private static final String PARALLEL_FRAGMENT_DIRECTIVE = "parallelFragment";
+    private static final int PARALLEL_FRAGMENT_THREADS = 32;
+    private static final int PARALLEL_FRAGMENT_QUEUE_SIZE = 256;
+    private static final Executor PARALLEL_FRAGMENT_EXECUTOR = PARALLEL_FRAGMENTS_ENABLED
+            ? newParallelFragmentExecutor() : null;
+
+    // Limits on how many renders of a view can run at once, by view name (e.g. "auto/table :: Row" for the fragment or
+    // "auto/table" for the whole page), so that a burst of requests for an expensive view can't starve the rest of the
+    // application. Renders over the limit wait in a bounded queue and are rejected with a 503 response once it's full
+    // or they've waited too long (see ConcurrencyLimit). The limits apply across all locales.
+    private static final Map<String, ConcurrencyLimit> VIEW_CONCURRENCY_LIMITS = Map.of(
+            // e.g. "auto/table", new ConcurrencyLimit(4, 16, Duration.ofMillis(200), Duration.ofSeconds(1))
+    );
+
+    // Fragment views to build at startup rather than on their first request. Only the listed locales are built,
+    // since the base template (and so the fragment template) can differ per locale.
+    // Fragments whose macros can't be found are either reported as warnings or fail the application startup.
+    private static final List<String> PRECOMPILED_FRAGMENT_VIEWS = List.of(
+            "auto/basic_page :: ArticleBlock",
+            "auto/table :: Row");
+    // Also builds the fragment views which the build found in the code (see FragmentIndex)
+    private static final boolean PRECOMPILE_INDEXED_FRAGMENT_VIEWS = true;
+    private static final List<Locale> PRECOMPILED_FRAGMENT_LOCALES = List.of(Locale.getDefault());
+    private static final boolean FAIL_ON_UNKNOWN_PRECOMPILED_FRAGMENTS = true;
+
+    // When enabled, template directories are watched for changes, which evict the changed templates and the templates
+    // importing them (along with the fragments built from them), and FreeMarker no longer checks whether templates have
+    // been modified once the template update delay has passed (see TemplateFileWatcher). Only templates loaded from
+    // the file system can be watched, e.g. when running from the IDE or with a "file:" template loader path.
+    private static final boolean TEMPLATE_FILE_WATCHING_ENABLED = false;
 
-    private static final boolean TRANSLATE_MACRO_NAMES_ENABLED = false;
-    private static final FragmentTemplate FRAGMENT_TEMPLATE_BUILDER = new FragmentTemplate.FullyAutomatic();
-    private static final String DEFAULT_MACRO = null;
+    // When enabled, FreeMarker's template cache holds up to the strong limit of templates strongly and the rest softly
+    // (see SoftCacheStorage), up to the total limit. The storage is concurrent like FreeMarker's default, so template
+    // lookups don't lock.
+    // Optionally, it's also limited by the total estimated size of the templates, including those held softly, which
+    // reads FreeMarker's private cache entries reflectively (see EvictableCacheStorage), as does watching template
+    // files. Only then are the sizes of FreeMarker's cache and its largest entries reported by the templatecaches
+    // actuator endpoint (see TemplateCachesEndpoint), as the fragment template cache's always are.
+    private static final boolean TEMPLATE_CACHE_LIMITS_ENABLED = true;
+    private static final int TEMPLATE_CACHE_MAX_STRONG_SIZE = 200;
+    private static final int TEMPLATE_CACHE_MAX_SIZE = 2000;
+    private static final boolean TEMPLATE_CACHE_SIZE_LIMIT_ENABLED = false;
+    private static final long TEMPLATE_CACHE_MAX_BYTES = 64L * 1024 * 1024;
+
+    // Threads are only created as needed and time out when idle, since components are expected to spend most of their
+    // time waiting. Fragments are queued once all the threads are busy.
+    private static Executor newParallelFragmentExecutor() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("parallel-fragment-");
+        threadFactory.setDaemon(true);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                PARALLEL_FRAGMENT_THREADS, PARALLEL_FRAGMENT_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(PARALLEL_FRAGMENT_QUEUE_SIZE), threadFactory,
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 
     @Bean
-    FreeMarkerViewResolver freeMarkerViewResolver(FreeMarkerProperties properties) {
-        FreeMarkerViewResolver resolver = new CustomFreeMarkerViewResolver();
+    FreeMarkerViewResolver freeMarkerViewResolver(
+            FreeMarkerProperties properties, ObjectProvider<MeterRegistry> meterRegistry) {
+        FreeMarkerViewResolver resolver = new CustomFreeMarkerViewResolver(meterRegistry.getIfAvailable());
         properties.applyToMvcViewResolver(resolver);
         return resolver;
     }
 
+    @Bean
+    FragmentModelAnalyzer fragmentModelAnalyzer(FreeMarkerViewResolver freeMarkerViewResolver) {
+        return new FragmentModelAnalyzer(freeMarkerViewResolver);
+    }
+
+    @Bean
+    FragmentEvents fragmentEvents(FreeMarkerViewResolver freeMarkerViewResolver) {
+        return new FragmentEvents(freeMarkerViewResolver);
+    }
+
+    @Bean
+    FragmentBatchRenderer fragmentBatchRenderer(FreeMarkerViewResolver freeMarkerViewResolver) {
+        return new FragmentBatchRenderer(freeMarkerViewResolver);
+    }
+
+    @Bean
+    FragmentPrecompiler fragmentPrecompiler(FreeMarkerViewResolver freeMarkerViewResolver) {
+        Set<String> viewNames = new LinkedHashSet<>(PRECOMPILED_FRAGMENT_VIEWS);
+        if (PRECOMPILE_INDEXED_FRAGMENT_VIEWS) {
+            viewNames.addAll(FragmentIndex.load());
+        }
+        return new FragmentPrecompiler(freeMarkerViewResolver, List.copyOf(viewNames),
+                PRECOMPILED_FRAGMENT_LOCALES, FAIL_ON_UNKNOWN_PRECOMPILED_FRAGMENTS);
+    }
+
+    // Static, as post-processors are created before the configuration class
+    @Bean
+    static TemplateCacheInstaller templateCacheInstaller() {
+        return new TemplateCacheInstaller();
+    }
+
+    @Bean
+    TemplateCachesEndpoint templateCachesEndpoint(FreeMarkerConfig freeMarkerConfig) {
+        return new TemplateCachesEndpoint(freeMarkerConfig.getConfiguration(), FragmentViews.FRAGMENT_TEMPLATE_BUILDER);
+    }
+
 
     static class CustomFreeMarkerView extends FreeMarkerView {
-        String fragmentId;
-        String fragmentViewName;
+        FragmentViewName fragmentView;
+        FragmentMetrics metrics; // null when metrics are disabled
+        ConcurrencyLimit concurrencyLimit; // null when unlimited
+        ViewResolver manualFragmentResolver; // null unless manual fragments are routed to fragment views
+        FragmentOutputCache outputCache; // null unless the output of fragments is cached
+        boolean directOutput; // whether fragments are written to the output stream, rather than the writer
+        // The fragment template's key in the shared cache, kept while it matches the base template. The fragment
+        // template itself isn't kept, as Spring caches up to 1024 views, which would keep templates alive that the
+        // shared cache's limits have freed.
+        private volatile CachingFragmentTemplate.Key fragmentTemplateKey;
+        // What's derived from the base template is kept until it changes, holding the base template weakly, for the
+        // same reason
+        private volatile AnalyzedFragmentNeeds lastFragmentNeeds;
+        private volatile ManualFragmentMacros lastManualFragmentMacros;
 
         @Override
         protected Template getTemplate(String name, Locale locale) throws IOException {
             Template template = super.getTemplate(name, locale);
-            String fragment = (fragmentId != null || DEFAULT_MACRO == null) ? fragmentId : DEFAULT_MACRO;
-            if (fragment != null) {
-                template = FRAGMENT_TEMPLATE_BUILDER.build(transformMacroName(fragment), fragmentViewName, template);
+            // Not set yet when the resolver is only checking that the base template exists
+            if (fragmentView != null && fragmentView.macroNames() != null) {
+                template = getFragmentTemplate(template);
             }
             return template;
         }
 
-        private static String transformMacroName(String fragmentId) {
-            if (TRANSLATE_MACRO_NAMES_ENABLED) { // e.g. "my-fragment" to "MyFragment"
-                // Will also capitalize when delimiter not found.
-                fragmentId = Stream.of(fragmentId.split("[-_]"))
-                        .map(s -> Character.toUpperCase(s.charAt(0)) + s.substring(1))
-                        .collect(Collectors.joining());
+        private Template getFragmentTemplate(Template baseTemplate) throws IOException {
+            CachingFragmentTemplate.Key key = fragmentTemplateKey;
+            if (key == null || !key.matches(baseTemplate)) {
+                key = CachingFragmentTemplate.key(fragmentView.macroNames(), baseTemplate);
+                fragmentTemplateKey = key;
+            }
+            return FragmentViews.getFragmentTemplate(fragmentView, key, baseTemplate, metrics);
+        }
+
+        // Builds the fragment template ahead of its first use,
+        // returning the names of any macros which couldn't be found in the base template.
+        List<String> precompile(Locale locale) throws IOException {
+            List<String> macroNames = fragmentView.macroNames();
+            if (macroNames == null) {
+                return List.of();
+            }
+            Template baseTemplate = super.getTemplate(getUrl(), locale);
+            List<String> unknownMacroNames = new ArrayList<>();
+            for (String macroName : macroNames) {
+                if (FragmentMacros.find(macroName, baseTemplate) == null) {
+                    unknownMacroNames.add(macroName);
+                }
+            }
+            getFragmentTemplate(baseTemplate);
+            return unknownMacroNames;
+        }
+
+        FragmentNeeds fragmentNeeds(Locale locale) throws IOException {
+            Template baseTemplate = super.getTemplate(getUrl(), locale);
+            AnalyzedFragmentNeeds last = lastFragmentNeeds;
+            if (last != null && last.baseTemplate().get() == baseTemplate) {
+                return last.needs();
+            }
+            FragmentNeeds needs = FragmentModelAnalyzer.analyze(baseTemplate, fragmentView.macroNames());
+            lastFragmentNeeds = new AnalyzedFragmentNeeds(new WeakReference<>(baseTemplate), needs);
+            return needs;
+        }
+
+        // Renders with a model that isn't tied to a request, e.g. for server-sent events after the request has been
+        // handled, so the template can't use the request, the session or Spring's macro helpers.
+        void render(Map<String, ?> model, Locale locale, Writer writer) throws IOException, TemplateException {
+            Template template = getTemplate(locale);
+            SimpleHash fmModel = new SimpleHash(model, getObjectWrapper());
+            CountingWriter countingWriter = new CountingWriter(writer);
+            renderFragment(() -> {
+                template.process(fmModel, countingWriter);
+                return countingWriter.getCount();
+            });
+        }
+
+        // Renders the view once for each of the values, as the named model attribute, like render. A fragment is
+        // rendered within a single processing of its template, so that its setup is only done once for all the values.
+        void renderEach(Map<String, ?> model, String attributeName, Iterable<?> values, Locale locale, Writer writer)
+                throws IOException, TemplateException {
+            Template template = getTemplate(locale);
+            SimpleHash fmModel = new SimpleHash(model, getObjectWrapper());
+            CountingWriter countingWriter = new CountingWriter(writer);
+            renderFragment(() -> {
+                if (FragmentMacroCall.isRootOf(template)) {
+                    FragmentMacroCall.processEach(template, fmModel, attributeName, values, countingWriter);
+                } else {
+                    for (Object value : values) {
+                        fmModel.put(attributeName, value);
+                        template.process(fmModel, countingWriter);
+                    }
+                }
+                return countingWriter.getCount();
+            });
+        }
+
+        // Returns the fragment view for the macro that the template calls for the manual fragment attribute,
+        // or null if there's no attribute or the template needs to be rendered to handle it
+        private View getManualFragmentView(Map<String, ?> model, HttpServletRequest request) throws Exception {
+            if (manualFragmentResolver == null || model == null
+                    || !(model.get(MANUAL_FRAGMENT_ATTRIBUTE) instanceof String fragment) || fragment.isEmpty()) {
+                return null;
+            }
+            Locale locale = RequestContextUtils.getLocale(request);
+            Template baseTemplate = super.getTemplate(getUrl(), locale);
+            ManualFragmentMacros last = lastManualFragmentMacros;
+            if (last == null || last.baseTemplate().get() != baseTemplate) {
+                last = new ManualFragmentMacros(new WeakReference<>(baseTemplate),
+                        ManualFragmentDispatch.findMacroNames(baseTemplate, MANUAL_FRAGMENT_ATTRIBUTE));
+                lastManualFragmentMacros = last;
+            }
+            String macroName = last.macroNames().get(fragment);
+            if (macroName == null || !FragmentViewName.transformMacroName(macroName).equals(macroName)) {
+                return null;
+            }
+            return manualFragmentResolver.resolveViewName(
+                    fragmentView.viewName() + FragmentViews.VIEW_FRAGMENT_SEPARATOR + macroName, locale);
+        }
+
+        @Override
+        public void render(Map<String, ?> model, HttpServletRequest request, HttpServletResponse response)
+                throws Exception {
+            View manualFragmentView = getManualFragmentView(model, request);
+            if (manualFragmentView != null) {
+                manualFragmentView.render(model, request, response);
+                return;
+            }
+            if (concurrencyLimit == null) {
+                super.render(model, request, response);
+                return;
+            }
+            if (!concurrencyLimit.tryAcquire()) {
+                concurrencyLimit.reject(request, response);
+                return;
+            }
+            try {
+                super.render(model, request, response);
+            } finally {
+                concurrencyLimit.release();
+            }
+        }
+
+        @Override
+        protected SimpleHash buildTemplateModel(Map<String, Object> model,
+                HttpServletRequest request, HttpServletResponse response) {
+            SimpleHash fmModel = super.buildTemplateModel(model, request, response);
+            if (PARALLEL_FRAGMENTS_ENABLED) {
+                // Replaced for pages (see renderParallel)
+                fmModel.put(PARALLEL_FRAGMENT_DIRECTIVE, ParallelFragments.INLINE);
+            }
+            return fmModel;
+        }
+
+        @Override
+        protected void doRender(Map<String, Object> model, HttpServletRequest request, HttpServletResponse response)
+                throws Exception {
+            if (PARALLEL_FRAGMENTS_ENABLED && fragmentView.fragmentId() == null) {
+                renderParallel(model, request, response);
+                return;
+            }
+            if (outputCache == null || fragmentView.fragmentId() == null) {
+                super.doRender(model, request, response);
+                return;
+            }
+            Locale locale = RequestContextUtils.getLocale(request);
+            FragmentOutputCache.Key key = getOutputCacheKey(model, locale);
+            if (key == null) {
+                super.doRender(model, request, response);
+                return;
+            }
+
+            Template template = getTemplate(locale);
+            FragmentOutputCache.Output output = outputCache.get(key, template);
+            if (metrics != null) {
+                metrics.recordOutputCacheLookup(output != null);
+            }
+            if (output == null) {
+                // Same as the superclass, other than rendering to a string
+                exposeModelAsRequestAttributes(model, request);
+                SimpleHash fmModel = buildTemplateModel(model, request, response);
+                StringWriter writer = new StringWriter();
+                renderFragment(() -> {
+                    template.process(fmModel, writer);
+                    return writer.getBuffer().length();
+                });
+                output = outputCache.put(key, template, writer.toString());
+            }
+
+            if (!new ServletWebRequest(request, response).checkNotModified(output.etag())) {
+                response.getWriter().write(output.content());
+            }
+        }
+
+        // Same as the superclass, other than the page being processed into a buffer along with its parallel fragments
+        private void renderParallel(Map<String, Object> model, HttpServletRequest request,
+                HttpServletResponse response) throws Exception {
+            exposeModelAsRequestAttributes(model, request);
+            SimpleHash fmModel = buildTemplateModel(model, request, response);
+            ParallelFragments parallelFragments = new ParallelFragments(FragmentViews.FRAGMENT_TEMPLATE_BUILDER,
+                    PARALLEL_FRAGMENT_EXECUTOR, () -> buildTemplateModel(model, request, response));
+            fmModel.put(PARALLEL_FRAGMENT_DIRECTIVE, parallelFragments);
+            Locale locale = RequestContextUtils.getLocale(request);
+            try {
+                getTemplate(locale).process(fmModel, parallelFragments.getWriter());
+                parallelFragments.writeTo(response.getWriter());
+            } catch (IOException | TemplateException | RuntimeException e) {
+                parallelFragments.cancel();
+                throw e;
+            }
+        }
+
+        // Returns null if the output can't be cached, since it's not known what the fragment reads,
+        // it reads something which isn't in the model (e.g. a request attribute or the "Session" hash)
+        // or something which can't be compared by value (see FragmentOutputCache.fingerprint).
+        private FragmentOutputCache.Key getOutputCacheKey(Map<String, Object> model, Locale locale)
+                throws IOException {
+            FragmentNeeds needs = fragmentNeeds(locale);
+            if (!needs.complete()) {
+                return null;
+            }
+            Map<String, Object> attributes = new HashMap<>();
+            for (String attribute : needs.attributes()) {
+                if (!model.containsKey(attribute)) {
+                    return null;
+                }
+                Object fingerprint = FragmentOutputCache.fingerprint(model.get(attribute));
+                if (fingerprint == FragmentOutputCache.UNCACHEABLE) {
+                    return null;
+                }
+                attributes.put(attribute, fingerprint);
+            }
+            return new FragmentOutputCache.Key(fragmentView.viewName(), locale, attributes);
+        }
+
+        @Override
+        protected void processTemplate(Template template, SimpleHash model, HttpServletResponse response)
+                throws IOException, TemplateException {
+            if (fragmentView.fragmentId() == null) {
+                super.processTemplate(template, model, response);
+                return;
+            }
+            renderFragment(() -> processFragment(template, model, response));
+        }
+
+        private void renderFragment(FragmentRender render)
+                throws IOException, TemplateException {
+            long start = System.nanoTime();
+            try {
+                long outputSize = render.render();
+                if (metrics != null) {
+                    metrics.recordRender(System.nanoTime() - start, outputSize);
+                }
+            } catch (IOException | TemplateException | RuntimeException e) {
+                if (metrics != null) {
+                    metrics.recordFailure(e);
+                }
+                throw e;
+            }
+        }
+
+        // Returns the number of characters written
+        private long processFragment(Template template, SimpleHash model, HttpServletResponse response)
+                throws IOException, TemplateException {
+            ServletOutputStream out = directOutput ? getOutputStream(response) : null;
+            if (out == null) {
+                CountingWriter writer = new CountingWriter(response.getWriter());
+                template.process(model, writer);
+                return writer.getCount();
+            }
+            Charset charset = Charset.forName(response.getCharacterEncoding());
+            StreamingWriter writer =
+                    new StreamingWriter(out, charset, STREAMING_BUFFER_POOL, STREAMING_FRAGMENTS_ENABLED);
+            try {
+                template.process(model, writer);
+                writer.close();
+            } finally {
+                writer.release();
+            }
+            return writer.getCount();
+        }
+
+        // Returns null when the response's writer has already been used, e.g. by something rendered before the view
+        private static ServletOutputStream getOutputStream(HttpServletResponse response) throws IOException {
+            try {
+                return response.getOutputStream();
+            } catch (IllegalStateException e) {
+                return null;
             }
-            return fragmentId;
         }
     }
 
 
+    // Resolves a view outside of handling a request, for the beans which render or analyze views directly
+    static View resolveView(ViewResolver viewResolver, String viewName, Locale locale) {
+        try {
+            return viewResolver.resolveViewName(viewName, locale);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to resolve view \"" + viewName + "\"", e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface FragmentRender {
+        // Returns the number of characters written
+        long render() throws IOException, TemplateException;
+    }
+
+    private record AnalyzedFragmentNeeds(WeakReference<Template> baseTemplate, FragmentNeeds needs) {}
+
+    private record ManualFragmentMacros(WeakReference<Template> baseTemplate, Map<String, String> macroNames) {}
+
+
     static class CustomFreeMarkerViewResolver extends FreeMarkerViewResolver {
+        private final MeterRegistry meterRegistry; // null when metrics are disabled
+
+        CustomFreeMarkerViewResolver(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            if (meterRegistry != null) {
+                VIEW_CONCURRENCY_LIMITS.forEach(this::registerConcurrencyMetrics);
+            }
+        }
+
+        private void registerConcurrencyMetrics(String viewName, ConcurrencyLimit limit) {
+            Gauge.builder("freemarker.view.concurrency.active", limit, ConcurrencyLimit::getActive)
+                    .description("Renders of the view in progress")
+                    .tag("view", viewName)
+                    .register(meterRegistry);
+            Gauge.builder("freemarker.view.concurrency.queued", limit, ConcurrencyLimit::getQueued)
+                    .description("Renders of the view waiting for the concurrency limit")
+                    .tag("view", viewName)
+                    .register(meterRegistry);
+            FunctionCounter.builder("freemarker.view.concurrency.rejected", limit, ConcurrencyLimit::getRejected)
+                    .description("Renders of the view rejected by the concurrency limit")
+                    .tag("view", viewName)
+                    .register(meterRegistry);
+        }
+
         @Override
         protected View loadView(String viewName, Locale locale) throws Exception {
-            String fragmentId = null;
-            String originalViewName = viewName;
-            int index = viewName.indexOf(VIEW_FRAGMENT_SEPARATOR);
-            if (index != -1) {
-                fragmentId = viewName.substring(index + VIEW_FRAGMENT_SEPARATOR.length());
-                viewName = viewName.substring(0, index);
-            }
+            // Parsed again for other locales, which is cheap compared to loading the view
+            FragmentViewName fragmentView = FragmentViewName.parse(viewName);
 
-            View view = super.loadView(viewName, locale);
+            View view = super.loadView(fragmentView.baseViewName(), locale);
             if (view instanceof CustomFreeMarkerView) {
-                ((CustomFreeMarkerView) view).fragmentId = fragmentId;
-                ((CustomFreeMarkerView) view).fragmentViewName = originalViewName;
+                ((CustomFreeMarkerView) view).fragmentView = fragmentView;
+                ((CustomFreeMarkerView) view).concurrencyLimit = VIEW_CONCURRENCY_LIMITS.get(viewName);
+                if (FRAGMENT_OUTPUT_CACHE_ENABLED && fragmentView.fragmentId() != null) {
+                    ((CustomFreeMarkerView) view).outputCache = FRAGMENT_OUTPUT_CACHE;
+                }
+                ((CustomFreeMarkerView) view).directOutput =
+                        STREAMING_FRAGMENTS_ENABLED || DIRECT_FRAGMENT_OUTPUT_ENABLED;
+                if (MANUAL_FRAGMENT_ROUTING_ENABLED && fragmentView.fragmentId() == null) {
+                    ((CustomFreeMarkerView) view).manualFragmentResolver = this;
+                }
+                if (fragmentView.fragmentId() != null && meterRegistry != null) {
+                    ((CustomFreeMarkerView) view).metrics = new FragmentMetrics(
+                            meterRegistry, fragmentView.baseViewName(), fragmentView.fragmentId());
+                }
             }
             return view;
         }
@@ -88,4 +583,110 @@ public class FreeMarkerAutoFragmentConfig {
         }
     }
 
+
+
+    static class FragmentPrecompiler implements SmartInitializingSingleton {
+        private static final Log logger = LogFactory.getLog(FragmentPrecompiler.class);
+        private final ViewResolver viewResolver;
+        private final List<String> viewNames;
+        private final List<Locale> locales;
+        private final boolean failOnUnknown;
+
+        FragmentPrecompiler(ViewResolver viewResolver, List<String> viewNames, List<Locale> locales,
+                boolean failOnUnknown) {
+            this.viewResolver = viewResolver;
+            this.viewNames = viewNames;
+            this.locales = locales;
+            this.failOnUnknown = failOnUnknown;
+        }
+
+        // Runs once all singletons exist, which includes the FreeMarker configuration the views use
+        @Override
+        public void afterSingletonsInstantiated() {
+            List<String> problems = new ArrayList<>();
+            for (Locale locale : locales) {
+                for (String viewName : viewNames) {
+                    try {
+                        // Also caches the view itself
+                        View view = viewResolver.resolveViewName(viewName, locale);
+                        if (view instanceof CustomFreeMarkerView) {
+                            List<String> unknownMacroNames = ((CustomFreeMarkerView) view).precompile(locale);
+                            if (!unknownMacroNames.isEmpty()) {
+                                problems.add("Unknown fragment macros " + unknownMacroNames +
+                                        " for view \"" + viewName + "\" (locale " + locale + ")");
+                            }
+                        }
+                    } catch (Exception e) {
+                        problems.add("Failed to precompile view \"" + viewName + "\" (locale " + locale + "): " + e);
+                    }
+                }
+            }
+
+            if (!problems.isEmpty() && failOnUnknown) {
+                throw new IllegalStateException(
+                        "Fragment precompilation failed:\n" + String.join("\n", problems));
+            }
+            problems.forEach(logger::warn);
+        }
+    }
+
+
+    // Sets up the template cache's storage and starts watching as soon as the FreeMarker configuration has been
+    // created, before any templates are loaded. Spring loads templates through its own template loader unless it's
+    // preferring file system access, so the template loader paths which are directories (e.g. when running from the
+    // IDE) are passed to the watcher.
+    static class TemplateCacheInstaller implements BeanPostProcessor, ApplicationContextAware, DisposableBean {
+        private ApplicationContext applicationContext;
+        private boolean installed;
+        private TemplateFileWatcher watcher;
+
+        @Override
+        public void setApplicationContext(ApplicationContext applicationContext) {
+            this.applicationContext = applicationContext;
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+            if (installed || !(bean instanceof FreeMarkerConfig freeMarkerConfig)) {
+                return bean;
+            }
+            installed = true;
+            freemarker.template.Configuration cfg = freeMarkerConfig.getConfiguration();
+            if (TEMPLATE_CACHE_LIMITS_ENABLED) {
+                cfg.setCacheStorage(new EvictableCacheStorage(new SoftCacheStorage(),
+                        TEMPLATE_CACHE_SIZE_LIMIT_ENABLED || TEMPLATE_FILE_WATCHING_ENABLED,
+                        TEMPLATE_CACHE_MAX_STRONG_SIZE, TEMPLATE_CACHE_MAX_SIZE,
+                        TEMPLATE_CACHE_SIZE_LIMIT_ENABLED ? TEMPLATE_CACHE_MAX_BYTES : Long.MAX_VALUE));
+            }
+            if (TEMPLATE_FILE_WATCHING_ENABLED) {
+                try {
+                    watcher = TemplateFileWatcher.start(
+                            cfg, getTemplateDirectories(), FragmentViews.FRAGMENT_TEMPLATE_BUILDER::evict);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to watch the template directories", e);
+                }
+            }
+            return bean;
+        }
+
+        private List<Path> getTemplateDirectories() throws IOException {
+            List<Path> directories = new ArrayList<>();
+            FreeMarkerProperties properties = applicationContext.getBean(FreeMarkerProperties.class);
+            for (String templateLoaderPath : properties.getTemplateLoaderPath()) {
+                Resource resource = applicationContext.getResource(templateLoaderPath);
+                if (resource.isFile() && resource.getFile().isDirectory()) {
+                    directories.add(resource.getFile().toPath());
+                }
+            }
+            return directories;
+        }
+
+        @Override
+        public void destroy() throws IOException {
+            if (watcher != null) {
+                watcher.close();
+            }
+        }
+    }
+
 }
@@ -0,0 +1,182 @@
+package example.freemarker.fragments;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.freemarker.FreeMarkerProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.core.Ordered;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.PooledDataBuffer;
+import org.springframework.http.MediaType;
+import org.springframework.util.MimeType;
+import org.springframework.web.reactive.result.view.AbstractUrlBasedView;
+import org.springframework.web.reactive.result.view.freemarker.FreeMarkerView;
+import org.springframework.web.reactive.result.view.freemarker.FreeMarkerViewResolver;
+import org.springframework.web.server.ServerWebExchange;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import freemarker.template.SimpleHash;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+
+// The equivalent of FreeMarkerAutoFragmentConfig for WebFlux applications, so that "view :: Fragment" view names
+// work the same way, using the same fragment templates, caching and metrics (see FragmentViews).
+// Rendering a template can block, e.g. when FreeMarker checks whether a template has been modified or when the model
+// has lazily loaded values, so fragments are rendered on the render scheduler rather than on an event loop thread.
+// Output is rendered into a single DataBuffer, as the standard reactive FreeMarkerView does.
+// Fragment views aren't precompiled at startup and the output cache isn't supported.
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class FreeMarkerReactiveFragmentConfig {
+    private static final Scheduler RENDER_SCHEDULER = Schedulers.boundedElastic(); // or Schedulers.immediate()
+    private static final int FRAGMENT_VIEW_NAME_CACHE_MAX_SIZE = 1000;
+
+    // Same as Spring Boot's default reactive resolver, other than the view class
+    @Bean
+    FreeMarkerViewResolver freeMarkerViewResolver(
+            FreeMarkerProperties properties, ObjectProvider<MeterRegistry> meterRegistry) {
+        FreeMarkerViewResolver resolver = new ReactiveFragmentViewResolver(meterRegistry.getIfAvailable());
+        resolver.setPrefix(properties.getPrefix());
+        resolver.setSuffix(properties.getSuffix());
+        resolver.setRequestContextAttribute(properties.getRequestContextAttribute());
+        resolver.setViewNames(properties.getViewNames());
+        resolver.setOrder(Ordered.LOWEST_PRECEDENCE - 5);
+        return resolver;
+    }
+
+
+    static class ReactiveFragmentView extends FreeMarkerView {
+        FragmentViews.FragmentViewName fragmentView;
+        FragmentMetrics metrics; // null when metrics are disabled
+
+        @Override
+        protected Template getTemplate(Locale locale) throws IOException {
+            Template template = super.getTemplate(locale);
+            List<String> macroNames = fragmentView.macroNames();
+            if (macroNames != null) {
+                template = FragmentViews.getFragmentTemplate(
+                        fragmentView, CachingFragmentTemplate.key(macroNames, template), template, metrics);
+            }
+            return template;
+        }
+
+        @Override
+        protected Mono<Void> renderInternal(
+                Map<String, Object> renderAttributes, MediaType contentType, ServerWebExchange exchange) {
+            if (fragmentView.fragmentId() == null) {
+                return super.renderInternal(renderAttributes, contentType, exchange);
+            }
+            Mono<DataBuffer> output = Mono
+                    .fromCallable(() -> renderFragment(renderAttributes, contentType, exchange))
+                    .subscribeOn(RENDER_SCHEDULER)
+                    .doOnDiscard(PooledDataBuffer.class, DataBufferUtils::release);
+            return exchange.getResponse().writeWith(output);
+        }
+
+        // Same as the superclass, other than recording metrics
+        private DataBuffer renderFragment(Map<String, Object> renderAttributes,
+                MediaType contentType, ServerWebExchange exchange) throws TemplateException {
+            long start = System.nanoTime();
+            SimpleHash model = getTemplateModel(renderAttributes, exchange);
+            Locale locale = LocaleContextHolder.getLocale(exchange.getLocaleContext());
+            DataBuffer dataBuffer = exchange.getResponse().bufferFactory().allocateBuffer();
+            try {
+                Charset charset = Optional.ofNullable(contentType)
+                        .map(MimeType::getCharset)
+                        .orElse(getDefaultCharset());
+                CountingWriter writer =
+                        new CountingWriter(new OutputStreamWriter(dataBuffer.asOutputStream(), charset));
+                getTemplate(locale).process(model, writer);
+                writer.flush();
+                if (metrics != null) {
+                    metrics.recordRender(System.nanoTime() - start, writer.getCount());
+                }
+                return dataBuffer;
+            } catch (IOException e) {
+                release(dataBuffer, e);
+                throw new IllegalStateException("Could not load FreeMarker template for URL [" + getUrl() + "]", e);
+            } catch (Throwable e) {
+                release(dataBuffer, e);
+                throw e;
+            }
+        }
+
+        private void release(DataBuffer dataBuffer, Throwable failure) {
+            DataBufferUtils.release(dataBuffer);
+            if (metrics != null) {
+                metrics.recordFailure(failure);
+            }
+        }
+    }
+
+    // Views aren't cached by reactive view resolvers, so the parsed view names and metrics are cached instead
+    static class ReactiveFragmentViewResolver extends FreeMarkerViewResolver {
+        private final MeterRegistry meterRegistry; // null when metrics are disabled
+        private final Map<String, ResolvedViewName> resolvedViewNames = new ConcurrentHashMap<>();
+
+        ReactiveFragmentViewResolver(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+        }
+
+        @Override
+        protected AbstractUrlBasedView createView(String viewName) {
+            ResolvedViewName resolved = getResolvedViewName(viewName);
+            AbstractUrlBasedView view = super.createView(resolved.fragmentView().baseViewName());
+            if (view instanceof ReactiveFragmentView) {
+                ((ReactiveFragmentView) view).fragmentView = resolved.fragmentView();
+                ((ReactiveFragmentView) view).metrics = resolved.metrics();
+            }
+            return view;
+        }
+
+        private ResolvedViewName getResolvedViewName(String viewName) {
+            ResolvedViewName resolved = resolvedViewNames.get(viewName);
+            if (resolved == null) {
+                var fragmentView = FragmentViews.FragmentViewName.parse(viewName);
+                FragmentMetrics metrics = (fragmentView.fragmentId() != null && meterRegistry != null)
+                        ? new FragmentMetrics(meterRegistry, fragmentView.baseViewName(), fragmentView.fragmentId())
+                        : null;
+                resolved = new ResolvedViewName(fragmentView, metrics);
+                Iterator<String> viewNames = resolvedViewNames.keySet().iterator();
+                while (resolvedViewNames.size() >= FRAGMENT_VIEW_NAME_CACHE_MAX_SIZE && viewNames.hasNext()) {
+                    viewNames.next();
+                    viewNames.remove();
+                }
+                resolvedViewNames.put(viewName, resolved);
+            }
+            return resolved;
+        }
+
+        @Override
+        protected Class<?> requiredViewClass() {
+            return ReactiveFragmentView.class;
+        }
+
+        @Override
+        protected AbstractUrlBasedView instantiateView() {
+            return getViewClass() == ReactiveFragmentView.class
+                    ? new ReactiveFragmentView() : super.instantiateView();
+        }
+    }
+
+    private record ResolvedViewName(FragmentViews.FragmentViewName fragmentView,
+            FragmentMetrics metrics) {}
+
+}
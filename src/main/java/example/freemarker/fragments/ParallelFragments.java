@@ -0,0 +1,167 @@
+package example.freemarker.fragments;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.Supplier;
+
+import freemarker.core.Environment;
+import freemarker.core.FragmentMacroCall;
+import freemarker.template.Template;
+import freemarker.template.TemplateDirectiveBody;
+import freemarker.template.TemplateDirectiveModel;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateScalarModel;
+
+// Directive which marks a call of one of the page's macros as an independent component, which can be rendered
+// concurrently with the rest of the page, e.g. <@parallelFragment name="Sidebar" />
+// Each marked macro is rendered on the executor as a fragment of the page (i.e. using the same fragment template as
+// "page :: Sidebar" would), with its own data model, into a separate buffer. The page's output is buffered too and
+// the buffers are written out in order once the page has been processed, waiting for each fragment in turn.
+// Since they're rendered as fragments, marked macros can't take arguments and can only use the data model and the
+// page's imports, not variables assigned by the page. Marked macros are called inline instead (as <@Sidebar />)
+// when there's no executor, or when the call isn't writing directly to the page (e.g. it's inside an #assign).
+// This only reduces latency when the macros read model values which are slow to load, e.g. Suppliers of backend
+// data, since otherwise the rendering itself is CPU bound and ordinarily quicker than handing it to another thread.
+class ParallelFragments implements TemplateDirectiveModel {
+    static final ParallelFragments INLINE = new ParallelFragments(null, null, null);
+
+    private final FragmentTemplate fragmentTemplates;
+    private final Executor executor; // null to call the macros inline
+    private final Supplier<TemplateHashModel> dataModels;
+    private final Output output = new Output();
+
+    // Each fragment is given a data model of its own from the supplier, since data models such as SimpleHash
+    // aren't safe for concurrent use by multiple environments
+    ParallelFragments(FragmentTemplate fragmentTemplates, Executor executor,
+            Supplier<TemplateHashModel> dataModels) {
+        this.fragmentTemplates = fragmentTemplates;
+        this.executor = executor;
+        this.dataModels = dataModels;
+    }
+
+    // The writer to process the page into
+    Writer getWriter() {
+        return output;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void execute(Environment env, Map params, TemplateModel[] loopVars, TemplateDirectiveBody body)
+            throws TemplateException, IOException {
+        TemplateModel nameModel = (TemplateModel) params.get("name");
+        if (!(nameModel instanceof TemplateScalarModel) || params.size() != 1 || body != null) {
+            throw new TemplateModelException(
+                    "The parallel fragment directive only takes a \"name\" parameter (the name of a macro) "
+                            + "and has no nested content.");
+        }
+        String macroName = ((TemplateScalarModel) nameModel).getAsString();
+        if (executor == null || env.getOut() != output) {
+            FragmentMacroCall.callInline(env, macroName);
+            return;
+        }
+
+        Template page = env.getMainTemplate();
+        Template fragment = fragmentTemplates.build(List.of(macroName), page.getName() + " :: " + macroName, page);
+        TemplateHashModel dataModel = dataModels.get();
+        FutureTask<String> render = new FutureTask<>(() -> {
+            StringWriter writer = new StringWriter();
+            fragment.process(dataModel, writer);
+            return writer.toString();
+        });
+        output.addFragment(render);
+        executor.execute(render);
+    }
+
+    // Waits for each fragment in turn
+    void writeTo(Writer out) throws IOException, TemplateException {
+        for (Object segment : output.finish()) {
+            if (segment instanceof Future<?> fragment) {
+                out.write(getOutput(fragment));
+            } else {
+                out.append((CharSequence) segment);
+            }
+        }
+    }
+
+    // For when the page fails, since the output of its fragments won't be needed
+    void cancel() {
+        for (Object segment : output.segments) {
+            if (segment instanceof Future<?> fragment) {
+                fragment.cancel(true);
+            }
+        }
+    }
+
+    private static String getOutput(Future<?> fragment) throws IOException, TemplateException {
+        try {
+            return (String) fragment.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a parallel fragment");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TemplateException) {
+                throw (TemplateException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+
+    // The page's output so far, as text interleaved with the fragments rendering in its place
+    private static class Output extends Writer {
+        private final List<Object> segments = new ArrayList<>();
+        private StringBuilder text = new StringBuilder(1024);
+
+        void addFragment(Future<String> fragment) {
+            segments.add(text);
+            segments.add(fragment);
+            text = new StringBuilder(256);
+        }
+
+        List<Object> finish() {
+            segments.add(text);
+            return segments;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            text.append(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            text.append(str, off, off + len);
+        }
+
+        @Override
+        public void write(int c) {
+            text.append((char) c);
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+    }
+
+}
@@ -0,0 +1,129 @@
+package example.freemarker.fragments;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import freemarker.core.FragmentMacroCall;
+import freemarker.core.LibraryLoad;
+import freemarker.core.Macro;
+import freemarker.core.SharedLibraryLoad;
+import freemarker.core.TemplateElement;
+import freemarker.core._FragmentCoreAPI;
+import freemarker.template.Template;
+
+// Shares the setup of an imported library between renders, when its top level only defines macros and imports other
+// libraries, i.e. it has no side effects. Rather than each render looking up the library and processing it, a shared
+// template is imported which only defines the library's macros and then imports its own libraries (shared in turn).
+// The library is looked up again once the configuration's template update delay has passed, so that a modified
+// library is picked up like it would be otherwise. Shared imports are eager rather than lazy, but cheap.
+// Only the lookup and parsing of the library are shared, not its evaluated namespace: each render still creates the
+// library's namespace and defines its macros in it, since a FreeMarker namespace belongs to a single processing.
+@SuppressWarnings("deprecation")
+final class SharedLibrary implements SharedLibraryLoad.Library {
+    private final LibraryLoad libraryLoad;
+    private final Template importingTemplate;
+    private volatile Snapshot snapshot;
+
+    private SharedLibrary(LibraryLoad libraryLoad, Template importingTemplate, Snapshot snapshot) {
+        this.libraryLoad = libraryLoad;
+        this.importingTemplate = importingTemplate;
+        this.snapshot = snapshot;
+    }
+
+    // Returns the import itself if the library can't be shared
+    static TemplateElement share(LibraryLoad libraryLoad, Template importingTemplate) throws IOException {
+        return share(libraryLoad, importingTemplate, new HashSet<>());
+    }
+
+    private static TemplateElement share(LibraryLoad libraryLoad, Template importingTemplate,
+            Set<String> importingTemplateNames) throws IOException {
+        Template library = FragmentMacros.getImportedTemplate(libraryLoad, importingTemplate);
+        // Libraries which import each other are left alone, since the shared templates are built eagerly
+        if (library == null || !_FragmentCoreAPI.isDeclarationsOnly(library)
+                || importingTemplateNames.contains(library.getName())) {
+            return libraryLoad;
+        }
+        Template sharedTemplate = newSharedTemplate(library, importingTemplateNames);
+        Snapshot snapshot = new Snapshot(library, sharedTemplate, recheckAt(importingTemplate));
+        return new SharedLibraryLoad(libraryLoad, new SharedLibrary(libraryLoad, importingTemplate, snapshot));
+    }
+
+    @Override
+    public Template getSharedTemplate() throws IOException {
+        Snapshot current = snapshot;
+        if (System.currentTimeMillis() < current.recheckAt()) {
+            return current.sharedTemplate();
+        }
+
+        Template library = FragmentMacros.getImportedTemplate(libraryLoad, importingTemplate);
+        Template sharedTemplate;
+        if (library == current.library()) {
+            sharedTemplate = current.sharedTemplate();
+        } else if (library != null && _FragmentCoreAPI.isDeclarationsOnly(library)) {
+            sharedTemplate = newSharedTemplate(library, new HashSet<>(Set.of(importingTemplate.getName())));
+        } else {
+            sharedTemplate = null;
+        }
+        snapshot = new Snapshot(library, sharedTemplate, recheckAt(importingTemplate));
+        return sharedTemplate;
+    }
+
+    // Reading the update delay locks the configuration's template cache, so it's only read when taking a snapshot
+    // rather than on every render
+    private static long recheckAt(Template importingTemplate) {
+        long delay = importingTemplate.getConfiguration().getTemplateUpdateDelayMilliseconds();
+        long now = System.currentTimeMillis();
+        return (delay > Long.MAX_VALUE - now) ? Long.MAX_VALUE : now + delay;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Template newSharedTemplate(Template library, Set<String> importingTemplateNames)
+            throws IOException {
+        importingTemplateNames.add(library.getName());
+        @SuppressWarnings("unchecked")
+        List<LibraryLoad> libraryImports = (List<LibraryLoad>) library.getImports();
+        List<TemplateElement> imports = new ArrayList<>(libraryImports.size());
+        for (LibraryLoad ll : libraryImports) {
+            imports.add(share(ll, library, importingTemplateNames));
+        }
+        importingTemplateNames.remove(library.getName());
+
+        Template sharedTemplate = new ImportsTemplate(library, imports);
+        @SuppressWarnings("unchecked")
+        Collection<Macro> macros = (Collection<Macro>) library.getMacros().values();
+        for (Macro macro : macros) {
+            sharedTemplate.addMacro(macro);
+        }
+        return sharedTemplate;
+    }
+
+
+    // The library's name is kept, so that it's still only imported once per render, however it's imported.
+    // Importing a template defines its macros before processing it, which here only imports its libraries.
+    private static class ImportsTemplate extends Template {
+        private final TemplateElement rootElement;
+
+        ImportsTemplate(Template library, List<TemplateElement> imports) throws IOException {
+            super(library.getName(), library.getSourceName(),
+                    Reader.nullReader(),
+                    library.getConfiguration(),
+                    library.getParserConfiguration(),
+                    library.getEncoding());
+            this.rootElement = new FragmentMacroCall(this, imports, null, List.of());
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public TemplateElement getRootTreeNode() {
+            return rootElement;
+        }
+    }
+
+    private record Snapshot(Template library, Template sharedTemplate, long recheckAt) {}
+
+}
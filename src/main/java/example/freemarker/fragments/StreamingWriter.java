@@ -0,0 +1,237 @@
+package example.freemarker.fragments;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+// Encodes directly into a pooled byte buffer and whenever that fills, writes it to the output stream.
+// When streaming, the output stream is flushed then too, so that the client starts receiving large output without
+// waiting for it to complete. Flushing this writer (e.g. by the FTL flush directive) also flushes the output stream,
+// which allows templates to add explicit flush points, such as after every N rows of a table.
+// UTF-8 is encoded by hand rather than by a CharsetEncoder, which needs each write wrapped in a CharBuffer. Since
+// FreeMarker's HTML escaping writes the unescaped parts of a value as substrings and the entities as shared arrays,
+// escaped output then goes straight into the buffer without any allocation. The characters written are counted.
+// Closing writes any remaining output, but doesn't close the underlying stream. Either way, release should be
+// called once finished with the writer (e.g. in a finally block), as otherwise the buffer isn't returned to the pool.
+class StreamingWriter extends Writer {
+    private static final byte REPLACEMENT = '?'; // Same as the UTF-8 encoder's, for malformed surrogates
+
+    private final OutputStream out;
+    private final boolean flushWhenFull;
+    private final CharsetEncoder encoder; // null for UTF-8
+    private final BufferPool bufferPool;
+    private byte[] bytes;
+    private ByteBuffer buffer; // Over the bytes, for the encoder
+    private int position;
+    private long count;
+    // A high surrogate at the end of one write needs to be encoded with the low surrogate from the next
+    private final char[] surrogatePair = new char[2];
+    private boolean hasPendingHighSurrogate;
+
+    public StreamingWriter(OutputStream out, Charset charset, BufferPool bufferPool) {
+        this(out, charset, bufferPool, true);
+    }
+
+    public StreamingWriter(OutputStream out, Charset charset, BufferPool bufferPool, boolean flushWhenFull) {
+        this.out = out;
+        this.flushWhenFull = flushWhenFull;
+        this.encoder = charset.equals(StandardCharsets.UTF_8) ? null : charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        // Otherwise, a single character might never fit
+        float maxBytesPerChar = (encoder != null) ? encoder.maxBytesPerChar() : 3;
+        if (bufferPool.getBufferSize() < 2 * maxBytesPerChar) {
+            throw new IllegalArgumentException("Buffer size too small: " + bufferPool.getBufferSize());
+        }
+        this.bufferPool = bufferPool;
+        this.bytes = bufferPool.acquire();
+        this.buffer = ByteBuffer.wrap(bytes);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        ensureOpen();
+        count += len;
+        if (encoder != null) {
+            write(CharBuffer.wrap(cbuf, off, len));
+            return;
+        }
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            char c = cbuf[i];
+            if (c < 0x80 && position < bytes.length && !hasPendingHighSurrogate) {
+                bytes[position++] = (byte) c;
+            } else {
+                writeUtf8(c);
+            }
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        ensureOpen();
+        count += len;
+        if (encoder != null) {
+            write(CharBuffer.wrap(str, off, off + len));
+            return;
+        }
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            char c = str.charAt(i);
+            if (c < 0x80 && position < bytes.length && !hasPendingHighSurrogate) {
+                bytes[position++] = (byte) c;
+            } else {
+                writeUtf8(c);
+            }
+        }
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        ensureOpen();
+        count++;
+        if (encoder != null) {
+            write(CharBuffer.wrap(new char[] { (char) c }));
+        } else {
+            writeUtf8((char) c);
+        }
+    }
+
+    private void writeUtf8(char c) throws IOException {
+        if (bytes.length - position < 4) {
+            bufferFull();
+        }
+        if (hasPendingHighSurrogate) {
+            hasPendingHighSurrogate = false;
+            if (Character.isLowSurrogate(c)) {
+                int codePoint = Character.toCodePoint(surrogatePair[0], c);
+                bytes[position++] = (byte) (0xF0 | (codePoint >> 18));
+                bytes[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                bytes[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                bytes[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                return;
+            }
+            bytes[position++] = REPLACEMENT;
+            if (bytes.length - position < 3) {
+                bufferFull();
+            }
+        }
+        if (c < 0x80) {
+            bytes[position++] = (byte) c;
+        } else if (c < 0x800) {
+            bytes[position++] = (byte) (0xC0 | (c >> 6));
+            bytes[position++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            surrogatePair[0] = c;
+            hasPendingHighSurrogate = true;
+        } else if (Character.isLowSurrogate(c)) {
+            bytes[position++] = REPLACEMENT;
+        } else {
+            bytes[position++] = (byte) (0xE0 | (c >> 12));
+            bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            bytes[position++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private void write(CharBuffer chars) throws IOException {
+        if (hasPendingHighSurrogate && chars.hasRemaining()) {
+            surrogatePair[1] = chars.get();
+            hasPendingHighSurrogate = false;
+            encode(CharBuffer.wrap(surrogatePair), false);
+        }
+        encode(chars, false);
+        if (chars.hasRemaining()) {
+            surrogatePair[0] = chars.get();
+            hasPendingHighSurrogate = true;
+        }
+    }
+
+    private void encode(CharBuffer chars, boolean endOfInput) throws IOException {
+        buffer.clear().position(position);
+        CoderResult result;
+        while ((result = encoder.encode(chars, buffer, endOfInput)).isOverflow()) {
+            position = buffer.position();
+            bufferFull();
+            buffer.clear();
+        }
+        position = buffer.position();
+        if (result.isError()) { // Not expected since errors are replaced
+            result.throwException();
+        }
+    }
+
+    private void bufferFull() throws IOException {
+        writeBuffer();
+        if (flushWhenFull) {
+            out.flush();
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        if (position > 0) {
+            out.write(bytes, 0, position);
+            position = 0;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        writeBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (bytes == null) {
+            return;
+        }
+        if (encoder != null) {
+            // A dangling high surrogate is malformed and so gets replaced
+            encode(CharBuffer.wrap(surrogatePair, 0, hasPendingHighSurrogate ? 1 : 0), true);
+            buffer.clear().position(position);
+            while (encoder.flush(buffer).isOverflow()) {
+                position = buffer.position();
+                writeBuffer();
+                buffer.clear();
+            }
+            position = buffer.position();
+        } else if (hasPendingHighSurrogate) {
+            if (position == bytes.length) {
+                writeBuffer();
+            }
+            bytes[position++] = REPLACEMENT;
+        }
+        hasPendingHighSurrogate = false;
+        flush();
+        release();
+    }
+
+    // Returns the buffer to the pool, discarding anything not yet written
+    void release() {
+        if (bytes != null) {
+            bufferPool.release(bytes);
+            bytes = null;
+            buffer = null;
+        }
+    }
+
+    // The number of characters written
+    long getCount() {
+        return count;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (bytes == null) {
+            throw new IOException("Writer closed");
+        }
+    }
+
+}
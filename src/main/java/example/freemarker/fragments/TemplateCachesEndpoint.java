@@ -0,0 +1,67 @@
+package example.freemarker.fragments;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+
+import freemarker.template.Configuration;
+
+// Reports the estimated memory used by FreeMarker's template cache and by the fragment template cache, in total and by
+// locale, along with their largest entries, e.g. http://127.0.0.1:8080/actuator/templatecaches
+// The sizes are estimates (see TemplateSizes) and are only for the entries which haven't been garbage collected.
+// FreeMarker's cache is only reported when its storage is an EvictableCacheStorage which reads its templates.
+@Endpoint(id = "templatecaches")
+public class TemplateCachesEndpoint {
+    private static final int LARGEST_ENTRIES = 20;
+
+    private final Configuration cfg;
+    private final CachingFragmentTemplate fragmentTemplates;
+
+    TemplateCachesEndpoint(Configuration cfg, CachingFragmentTemplate fragmentTemplates) {
+        this.cfg = cfg;
+        this.fragmentTemplates = fragmentTemplates;
+    }
+
+    @ReadOperation
+    public Report report() {
+        CacheReport<EvictableCacheStorage.TemplateInfo> templates = null;
+        if (cfg.getCacheStorage() instanceof EvictableCacheStorage cacheStorage && cacheStorage.readsTemplates()) {
+            templates = CacheReport.of(cacheStorage.entries(),
+                    EvictableCacheStorage.TemplateInfo::locale, EvictableCacheStorage.TemplateInfo::estimatedBytes);
+        }
+        CacheReport<CachingFragmentTemplate.EntryInfo> fragments = CacheReport.of(fragmentTemplates.entries(),
+                CachingFragmentTemplate.EntryInfo::locale, CachingFragmentTemplate.EntryInfo::estimatedBytes);
+        return new Report(templates, fragments);
+    }
+
+
+    public record Report(CacheReport<EvictableCacheStorage.TemplateInfo> templates,
+            CacheReport<CachingFragmentTemplate.EntryInfo> fragmentTemplates) {}
+
+    // Locales are reported by their string form, which is empty for the root locale
+    public record CacheReport<T>(int entries, long estimatedBytes, Map<String, Long> estimatedBytesByLocale,
+            List<T> largest) {
+
+        static <T> CacheReport<T> of(List<T> entries, Function<T, Locale> locale, ToLongFunction<T> bytes) {
+            Map<String, Long> bytesByLocale = new TreeMap<>();
+            long totalBytes = 0;
+            for (T entry : entries) {
+                bytesByLocale.merge(String.valueOf(locale.apply(entry)), bytes.applyAsLong(entry), Long::sum);
+                totalBytes += bytes.applyAsLong(entry);
+            }
+            List<T> largest = entries.stream()
+                    .sorted(Comparator.comparingLong(bytes).reversed())
+                    .limit(LARGEST_ENTRIES)
+                    .toList();
+            return new CacheReport<>(entries.size(), totalBytes, bytesByLocale, largest);
+        }
+    }
+
+}
@@ -0,0 +1,261 @@
+package example.freemarker.fragments;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import freemarker.cache.FileTemplateLoader;
+import freemarker.cache.MultiTemplateLoader;
+import freemarker.cache.TemplateLoader;
+import freemarker.cache._CacheAPI;
+import freemarker.core.LibraryLoad;
+import freemarker.core._FragmentCoreAPI;
+import freemarker.template.Configuration;
+import freemarker.template.MalformedTemplateNameException;
+import freemarker.template.Template;
+
+// Evicts templates from FreeMarker's template cache when their files change, instead of FreeMarker checking whether
+// each template has been modified whenever the template update delay has passed, which is set to never once watching.
+// The templates which import a changed template are evicted too (transitively, per Template.getImports()), since what's
+// derived from a template and cached against its instance can depend on its imports, e.g. shared libraries and the
+// attributes a fragment reads. The listener is given the names of the evicted templates, so derived caches can drop
+// their entries rather than waiting for them to be replaced.
+// Finding the cached templates relies on reading FreeMarker's cache entries (see EvictableCacheStorage), so when they
+// can't be read, templates are checked for modification as usual.
+// Creating a file clears the whole cache, since a new file can change which localized variant a template name resolves
+// to and can satisfy lookups which previously failed. Editors which save by renaming a new file therefore clear it too.
+// Only templates in directories can be watched, so templates in jars still need polling to be reloaded (not that they
+// usually change). Imports with non-literal template names aren't followed.
+final class TemplateFileWatcher implements Closeable {
+    private static final Log logger = LogFactory.getLog(TemplateFileWatcher.class);
+    // Editors and builds tend to touch several files at once, so changes are gathered until they've settled
+    private static final long SETTLE_MILLIS = 50;
+
+    private final Configuration cfg;
+    private final EvictableCacheStorage cacheStorage;
+    private final Consumer<Set<String>> evictionListener;
+    private final WatchService watchService;
+    private final Map<WatchKey, WatchedDirectory> watchedDirectories = new ConcurrentHashMap<>();
+    private final Thread thread;
+
+    private TemplateFileWatcher(Configuration cfg, EvictableCacheStorage cacheStorage,
+            Consumer<Set<String>> evictionListener, WatchService watchService) {
+        this.cfg = cfg;
+        this.cacheStorage = cacheStorage;
+        this.evictionListener = evictionListener;
+        this.watchService = watchService;
+        this.thread = new Thread(this::watch, "template-file-watcher");
+        this.thread.setDaemon(true);
+    }
+
+    // Watches the directories of the configuration's FileTemplateLoaders along with the given template directories,
+    // i.e. the base directories of other loaders, such as Spring's for template loader paths which are on disk.
+    // Returns null if there aren't any. Should be started before any templates are loaded, as replacing the cache
+    // storage empties the cache.
+    static TemplateFileWatcher start(Configuration cfg, List<Path> templateDirectories,
+            Consumer<Set<String>> evictionListener) throws IOException {
+        List<Path> baseDirectories = new ArrayList<>(templateDirectories);
+        addBaseDirectories(cfg.getTemplateLoader(), baseDirectories);
+        if (baseDirectories.isEmpty()) {
+            logger.info("No template directories to watch, so templates are still checked for modification "
+                    + "once the template update delay has passed");
+            return null;
+        }
+
+        EvictableCacheStorage cacheStorage = (cfg.getCacheStorage() instanceof EvictableCacheStorage evictable
+                && evictable.readsTemplates()) ? evictable : new EvictableCacheStorage(cfg.getCacheStorage());
+        if (!cacheStorage.readsTemplates()) {
+            logger.warn("Can't find the cached templates to evict, so templates are still checked for modification "
+                    + "once the template update delay has passed");
+            return null;
+        }
+        cfg.setCacheStorage(cacheStorage);
+        TemplateFileWatcher watcher = new TemplateFileWatcher(
+                cfg, cacheStorage, evictionListener, FileSystems.getDefault().newWatchService());
+        try {
+            for (Path baseDirectory : baseDirectories) {
+                watcher.register(baseDirectory, baseDirectory);
+            }
+        } catch (IOException | RuntimeException e) {
+            watcher.close();
+            throw e;
+        }
+        cfg.setTemplateUpdateDelayMilliseconds(Long.MAX_VALUE);
+        watcher.thread.start();
+        logger.info("Watching template directories " + baseDirectories);
+        return watcher;
+    }
+
+    private static void addBaseDirectories(TemplateLoader templateLoader, List<Path> baseDirectories) {
+        if (templateLoader instanceof FileTemplateLoader fileTemplateLoader) {
+            baseDirectories.add(fileTemplateLoader.getBaseDirectory().toPath());
+        } else if (templateLoader instanceof MultiTemplateLoader multiTemplateLoader) {
+            for (int i = 0; i < multiTemplateLoader.getTemplateLoaderCount(); i++) {
+                addBaseDirectories(multiTemplateLoader.getTemplateLoader(i), baseDirectories);
+            }
+        }
+    }
+
+    // Watch services only watch a directory's direct children, so its subdirectories are registered too
+    private void register(Path baseDirectory, Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.filter(Files::isDirectory)::iterator) {
+                WatchKey key = path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                watchedDirectories.put(key, new WatchedDirectory(baseDirectory, path));
+            }
+        }
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                Changes changes = new Changes();
+                WatchKey key = watchService.take();
+                do {
+                    collectChanges(key, changes);
+                    key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                } while (key != null);
+                try {
+                    evict(changes);
+                } catch (RuntimeException e) {
+                    logger.warn("Failed to evict templates after changes to " + changes.sourceNames, e);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    private void collectChanges(WatchKey key, Changes changes) {
+        WatchedDirectory watched = watchedDirectories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (watched == null || event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changes.created = true;
+                continue;
+            }
+            Path path = watched.directory().resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                changes.created = true;
+                if (Files.isDirectory(path)) {
+                    try {
+                        register(watched.baseDirectory(), path);
+                    } catch (IOException e) {
+                        logger.warn("Failed to watch template directory " + path, e);
+                    }
+                }
+            }
+            changes.sourceNames.add(toSourceName(watched.baseDirectory(), path));
+        }
+        if (!key.reset()) {
+            watchedDirectories.remove(key);
+        }
+    }
+
+    // The name that FreeMarker gives the file as a template source, i.e. relative to the loader's base directory
+    private static String toSourceName(Path baseDirectory, Path path) {
+        String sourceName = baseDirectory.relativize(path).toString();
+        return (path.getFileSystem().getSeparator().equals("/"))
+                ? sourceName : sourceName.replace(path.getFileSystem().getSeparator(), "/");
+    }
+
+    private void evict(Changes changes) {
+        Set<String> evictedNames = new HashSet<>();
+        if (changes.created) {
+            for (Template template : cacheStorage.getTemplates().values()) {
+                evictedNames.add(template.getName());
+            }
+            cfg.clearTemplateCache();
+        } else {
+            Map<Object, Template> evicted = findAffectedTemplates(changes.sourceNames);
+            evicted.keySet().forEach(cacheStorage::evict);
+            evicted.values().forEach(template -> evictedNames.add(template.getName()));
+        }
+        if (!evictedNames.isEmpty()) {
+            logger.info("Evicted templates " + evictedNames + " after changes to " + changes.sourceNames);
+            evictionListener.accept(evictedNames);
+        }
+    }
+
+    // The templates loaded from the changed files along with those which import them, by their cache keys
+    private Map<Object, Template> findAffectedTemplates(Set<String> sourceNames) {
+        Map<Object, Template> cached = new HashMap<>(cacheStorage.getTemplates());
+        Map<Object, Template> affected = new HashMap<>();
+        Set<String> affectedNames = new HashSet<>();
+        boolean found = true;
+        while (found) {
+            found = false;
+            for (Map.Entry<Object, Template> entry : cached.entrySet()) {
+                Template template = entry.getValue();
+                if (!affected.containsKey(entry.getKey())
+                        && (sourceNames.contains(template.getSourceName()) || importsAny(template, affectedNames))) {
+                    affected.put(entry.getKey(), template);
+                    affectedNames.add(template.getName());
+                    found = true;
+                }
+            }
+        }
+        return affected;
+    }
+
+    @SuppressWarnings("deprecation")
+    private boolean importsAny(Template template, Set<String> templateNames) {
+        if (templateNames.isEmpty()) {
+            return false;
+        }
+        @SuppressWarnings("unchecked")
+        List<LibraryLoad> imports = (List<LibraryLoad>) template.getImports();
+        for (LibraryLoad ll : imports) {
+            String templateName = _FragmentCoreAPI.getLiteralTemplateName(ll);
+            if (templateName != null) {
+                try {
+                    // Same resolution of relative names as when processing the import
+                    String fullTemplateName = _CacheAPI.normalizeRootBasedName(cfg.getTemplateNameFormat(),
+                            _CacheAPI.toRootBasedName(cfg.getTemplateNameFormat(), template.getName(), templateName));
+                    if (templateNames.contains(fullTemplateName)) {
+                        return true;
+                    }
+                } catch (MalformedTemplateNameException e) {
+                    // Fails when imported as well
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        thread.interrupt();
+        watchService.close();
+    }
+
+
+    // Changed files by their template source names
+    private static class Changes {
+        final Set<String> sourceNames = new HashSet<>();
+        boolean created;
+    }
+
+    private record WatchedDirectory(Path baseDirectory, Path directory) {}
+
+}
@@ -0,0 +1,39 @@
+package example.freemarker.fragments;
+
+import freemarker.core.TemplateElement;
+import freemarker.core._FragmentCoreAPI;
+import freemarker.template.Template;
+
+// Approximates how much heap a template retains, for bounding the template caches by bytes rather than just by count.
+// The estimate is made up of a fixed cost per tree node (an element or expression along with its fields, strings and
+// arrays, averaged over the templates in this application) and the source text, which templates keep line by line
+// for error messages. It's only meant to be close enough to compare templates and to size the caches, since measuring
+// the real retained size would mean walking the object graph (and the parts shared with other templates).
+final class TemplateSizes {
+    private static final long TEMPLATE_BYTES = 1800; // The template and its settings, macro map, etc.
+    private static final long TREE_NODE_BYTES = 120;
+    private static final long SOURCE_LINE_BYTES = 56; // Each line's String and its array header
+
+    private TemplateSizes() {
+    }
+
+    @SuppressWarnings("deprecation")
+    static long estimate(Template template) {
+        long size = TEMPLATE_BYTES + TREE_NODE_BYTES * _FragmentCoreAPI.countTreeNodes(template);
+        TemplateElement root = template.getRootTreeNode();
+        if (root != null && root.getEndLine() > 0) {
+            String source;
+            try {
+                source = template.getSource(1, 1, root.getEndColumn(), root.getEndLine());
+            } catch (RuntimeException e) { // A tree which doesn't match the source, e.g. a derived fragment template
+                source = null;
+            }
+            if (source != null) {
+                // Latin-1 text is stored as a byte per character, which is most of a typical HTML template
+                size += source.length() + SOURCE_LINE_BYTES * root.getEndLine();
+            }
+        }
+        return size;
+    }
+
+}
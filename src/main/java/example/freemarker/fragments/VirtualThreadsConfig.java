@@ -0,0 +1,68 @@
+package example.freemarker.fragments;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+// Handles requests on virtual threads (Java 21+) when the "virtual-threads" profile is active,
+// e.g. java -jar target/fragments.jar --spring.profiles.active=virtual-threads
+// Spring Boot 2.7 predates virtual threads, so Tomcat is given a virtual thread per task executor directly. It's
+// looked up reflectively, so that the application still builds and runs on Java 17 without the profile.
+// A virtual thread which blocks while holding a monitor pins its carrier thread, so the fragment rendering path
+// avoids synchronized: fragment templates and output are cached in concurrent maps and built outside of them,
+// buffers are pooled in a concurrent queue and FreeMarker's template cache storage is concurrent (including
+// when it's limited, see EvictableCacheStorage), so the template cache doesn't lock it when looking up templates.
+// Blocking while a view is first resolved does pin, since Spring's view resolver creates views under a lock, which is
+// another reason to list fragment views to be built at startup. Pinning can be reported with -Djdk.tracePinnedThreads.
+@Configuration
+@Profile("virtual-threads")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class VirtualThreadsConfig {
+
+    // The executor isn't a bean itself, since Spring Boot only auto-configures its applicationTaskExecutor (e.g. for
+    // @Async methods and MVC's async request handling) when there's no other Executor bean.
+    @Bean
+    VirtualThreadProtocolHandlerCustomizer virtualThreadProtocolHandlerCustomizer() {
+        return new VirtualThreadProtocolHandlerCustomizer(newVirtualThreadPerTaskExecutor());
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(
+                    "The virtual-threads profile requires Java 21 or later, not Java " + Runtime.version(), e);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to create a virtual thread executor", e);
+        }
+    }
+
+
+    // Tomcat doesn't stop an executor that it's given, so it's shut down along with the application context
+    static class VirtualThreadProtocolHandlerCustomizer
+            implements TomcatProtocolHandlerCustomizer<ProtocolHandler>, DisposableBean {
+        private final ExecutorService executor;
+
+        VirtualThreadProtocolHandlerCustomizer(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public void customize(ProtocolHandler protocolHandler) {
+            protocolHandler.setExecutor(executor);
+        }
+
+        @Override
+        public void destroy() {
+            executor.shutdown();
+        }
+    }
+
+}
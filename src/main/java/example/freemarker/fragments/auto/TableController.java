@@ -1,25 +1,46 @@
 package example.freemarker.fragments.auto;
 
+import java.io.IOException;
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletResponse;
 
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 
+import example.freemarker.fragments.FragmentBatchRenderer;
+import example.freemarker.fragments.FragmentEventEmitter;
+import example.freemarker.fragments.FragmentEvents;
 import example.freemarker.fragments.Person;
 
+import freemarker.template.TemplateException;
+
 @Controller("AutoTableController")
 @RequestMapping("/auto/table")
 public class TableController {
+    private static final List<Person> PEOPLE = List.of(
+            new Person(1, "John Paul", "jp@gmail.com"),
+            new Person(2, "Paul George", "pg@gmail.com"),
+            new Person(3, "George John", "gj@gmail.com")
+    );
+
+    private final FragmentEvents fragmentEvents;
+    private final FragmentBatchRenderer fragmentBatchRenderer;
+
+    public TableController(FragmentEvents fragmentEvents, FragmentBatchRenderer fragmentBatchRenderer) {
+        this.fragmentEvents = fragmentEvents;
+        this.fragmentBatchRenderer = fragmentBatchRenderer;
+    }
 
     @GetMapping
     public String getPage(Model model) {
-        model.addAttribute("people", List.of(
-                new Person(1, "John Paul", "jp@gmail.com"),
-                new Person(2, "Paul George", "pg@gmail.com"),
-                new Person(3, "George John", "gj@gmail.com")
-        ));
+        model.addAttribute("people", PEOPLE);
         return "auto/table";
     }
 
@@ -30,5 +51,36 @@ public class TableController {
         return "auto/table :: Row";
     }
 
-}
+    // A row for each person, e.g. for adding several new rows at once
+    @GetMapping("/rows/all")
+    public void getRows(HttpServletResponse response) throws IOException, TemplateException {
+        response.setContentType("text/html;charset=UTF-8");
+        fragmentBatchRenderer.renderAll("auto/table :: Row", "person", PEOPLE, response.getWriter());
+    }
 
+    // Sends a row for each person as a server-sent event, one a second
+    @GetMapping("/rows")
+    public FragmentEventEmitter streamRows() {
+        FragmentEventEmitter emitter = fragmentEvents.emitter("auto/table :: Row", Duration.ofMinutes(1));
+        Executor delayed = CompletableFuture.delayedExecutor(1, TimeUnit.SECONDS);
+        CompletableFuture<Void> sent = CompletableFuture.completedFuture(null);
+        for (Person person : PEOPLE) {
+            sent = sent.thenRunAsync(() -> {
+                try {
+                    emitter.sendFragment("person", person);
+                } catch (Exception e) {
+                    throw new IllegalStateException("Failed to send row", e);
+                }
+            }, delayed);
+        }
+        sent.whenComplete((result, failure) -> {
+            if (failure != null) {
+                emitter.completeWithError(failure);
+            } else {
+                emitter.complete();
+            }
+        });
+        return emitter;
+    }
+
+}
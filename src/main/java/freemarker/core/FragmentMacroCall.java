@@ -0,0 +1,180 @@
+package freemarker.core;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import freemarker.template.EmptyMap;
+import freemarker.template.SimpleHash;
+import freemarker.template.Template;
+import freemarker.template.TemplateDirectiveModel;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateModel;
+import freemarker.template.utility.StringUtil;
+
+// Template root element which performs the equivalent of a generated fragment template, i.e. the base template's
+// imports, an optional pre-fragment macro and then the fragment macro calls, without having to generate and parse FTL.
+// It lives in this package since FreeMarker doesn't publicly expose a way to implement elements or to call macros
+// directly from Java. This relies on it being loaded by the same class loader as FreeMarker, which is the case
+// for both the plain and the Spring Boot executable jar class paths.
+@SuppressWarnings({ "deprecation", "unchecked" }) // TemplateElement and EmptyMap use raw types
+public final class FragmentMacroCall extends TemplateElement {
+    private final TemplateElement[] imports;
+    private final String[] preFragmentMacroPath;
+    private final String[][] macroPaths;
+
+    // The imports are usually LibraryLoad elements, but can be anything that imports a library (e.g. SharedLibraryLoad)
+    public FragmentMacroCall(Template template, List<? extends TemplateElement> imports,
+            String preFragmentMacro, List<String> macroNames) {
+        this.imports = imports.toArray(new TemplateElement[0]);
+        // Same as a macro call's name expression, where a dot separates a namespace from its macro
+        this.preFragmentMacroPath = (preFragmentMacro == null) ? null : StringUtil.split(preFragmentMacro, '.');
+        this.macroPaths = new String[macroNames.size()][];
+        for (int i = 0; i < macroPaths.length; i++) {
+            macroPaths[i] = StringUtil.split(macroNames.get(i), '.');
+        }
+        setLocation(template, 1, 1, 1, 1);
+    }
+
+    // Whether the template was built to call fragment macros directly, and so can be rendered by processEach
+    public static boolean isRootOf(Template template) {
+        return template.getRootTreeNode() instanceof FragmentMacroCall;
+    }
+
+    // Processes the template, calling its fragment macros once for each of the values, which are put into the data
+    // model as the named variable in turn. Everything else is only done once rather than per value, i.e. setting up
+    // the environment, auto-imports, the template's imports, the pre-fragment macro and looking up the macros.
+    public static void processEach(Template template, SimpleHash dataModel, String name, Iterable<?> values,
+            Writer out) throws TemplateException, IOException {
+        if (!isRootOf(template)) {
+            throw new IllegalArgumentException("Not a fragment macro call template: " + template.getName());
+        }
+        Environment env = template.createProcessingEnvironment(dataModel, out);
+        env.setCustomState(Batch.class, new Batch(dataModel, name, values));
+        env.process();
+    }
+
+    // Calls the macro (or a namespace's macro, e.g. "lib.Macro") from within the current processing, as if by
+    // <@Macro /> without any arguments, e.g. from a directive written in Java
+    public static void callInline(Environment env, String macroName) throws TemplateException, IOException {
+        env.visit(new FragmentMacroCall(env.getCurrentTemplate(), List.of(), null, List.of(macroName)));
+    }
+
+    @Override
+    TemplateElement[] accept(Environment env) throws TemplateException, IOException {
+        // Removed, so that shared libraries (whose templates have this as their root too) don't see it
+        Batch batch = (Batch) env.setCustomState(Batch.class, null);
+        for (TemplateElement ll : imports) {
+            // Imports resolve relative template names against the base template they were declared in
+            env.visit(ll);
+        }
+        if (preFragmentMacroPath != null) {
+            TemplateModel preFragmentMacro = lookup(env, preFragmentMacroPath);
+            if (preFragmentMacro != null) {
+                call(env, preFragmentMacro, preFragmentMacroPath);
+            }
+        }
+        TemplateModel[] macros = new TemplateModel[macroPaths.length];
+        for (int i = 0; i < macroPaths.length; i++) {
+            macros[i] = lookup(env, macroPaths[i]);
+            if (macros[i] == null) {
+                throw new InvalidReferenceException(
+                        "Fragment macro " + StringUtil.jQuote(String.join(".", macroPaths[i])) + " was not found.",
+                        env);
+            }
+        }
+        if (batch == null) {
+            callAll(env, macros);
+        } else {
+            for (Object value : batch.values()) {
+                batch.dataModel().put(batch.name(), value);
+                callAll(env, macros);
+            }
+        }
+        return null;
+    }
+
+    private void callAll(Environment env, TemplateModel[] macros) throws TemplateException, IOException {
+        for (int i = 0; i < macros.length; i++) {
+            call(env, macros[i], macroPaths[i]);
+        }
+    }
+
+    private static TemplateModel lookup(Environment env, String[] path) throws TemplateException {
+        TemplateModel model = env.getVariable(path[0]);
+        for (int i = 1; i < path.length && model != null; i++) {
+            if (!(model instanceof TemplateHashModel)) {
+                throw new _MiscTemplateException(env,
+                        "Expected a hash for ", new _DelayedJQuote(path[i - 1]),
+                        " when looking up fragment macro ", new _DelayedJQuote(String.join(".", path)), ".");
+            }
+            model = ((TemplateHashModel) model).get(path[i]);
+        }
+        return model;
+    }
+
+    private void call(Environment env, TemplateModel model, String[] path) throws TemplateException, IOException {
+        if (model == Macro.DO_NOTHING_MACRO) {
+            return;
+        }
+        if (model instanceof Macro && !((Macro) model).isFunction()) {
+            env.invokeMacro((Macro) model, null, null, null, this);
+        } else if (model instanceof TemplateDirectiveModel) {
+            env.visit((TemplateElement[]) null, (TemplateDirectiveModel) model, EmptyMap.instance, null);
+        } else {
+            throw new _MiscTemplateException(env,
+                    "Fragment ", new _DelayedJQuote(String.join(".", path)), " is not a macro or directive.");
+        }
+    }
+
+    private record Batch(SimpleHash dataModel, String name, Iterable<?> values) {}
+
+    @Override
+    protected String dump(boolean canonical) {
+        StringBuilder sb = new StringBuilder();
+        if (canonical) {
+            for (TemplateElement ll : imports) {
+                sb.append(ll.getCanonicalForm());
+            }
+        }
+        for (String[] macroPath : macroPaths) {
+            if (canonical) {
+                sb.append('<');
+            } else if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append('@').append(String.join(".", macroPath));
+            if (canonical) {
+                sb.append(" />");
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    String getNodeTypeSymbol() {
+        return "@";
+    }
+
+    @Override
+    int getParameterCount() {
+        return 0;
+    }
+
+    @Override
+    Object getParameterValue(int idx) {
+        throw new IndexOutOfBoundsException();
+    }
+
+    @Override
+    ParameterRole getParameterRole(int idx) {
+        throw new IndexOutOfBoundsException();
+    }
+
+    @Override
+    boolean isNestedBlockRepeater() {
+        return false;
+    }
+
+}
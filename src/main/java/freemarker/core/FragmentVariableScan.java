@@ -0,0 +1,203 @@
+package freemarker.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import freemarker.template.Template;
+
+// Statically finds what a macro (or a template's top-level content) reads from outside of itself, without processing
+// it. That's the variables it refers to but doesn't bind itself (as dotted paths where possible, e.g. "person.name" or
+// "lib.Macro") and the macros it calls along with the names of the arguments passed to them.
+// It lives in this package for the same reason as FragmentMacroCall, since the AST isn't publicly accessible.
+// Names bound anywhere in the scanned content (parameters, loop variables and local assignments) are treated as bound
+// everywhere in it, regardless of order. Namespace and global assignments aren't treated as binding names, since they
+// only shadow data model variables once they've been processed (e.g. <#assign title = title!"Untitled">).
+// Imports aren't scanned, since they're available from the template.
+// Anything which can read variables that can't be determined statically (e.g. includes, ?interpret or .vars)
+// marks the scan as dynamic.
+@SuppressWarnings("deprecation")
+public final class FragmentVariableScan {
+    private static final Set<String> DYNAMIC_BUILTIN_VARIABLES = Set.of(
+            BuiltinVariable.VARS, BuiltinVariable.GLOBALS, BuiltinVariable.DATA_MODEL, BuiltinVariable.DATA_MODEL_CC);
+
+    private final Set<String> references = new LinkedHashSet<>();
+    private final Map<String, Set<String>> parameterDefaultReferences = new LinkedHashMap<>();
+    private final List<Call> calls = new ArrayList<>();
+    private final Set<String> boundNames = new HashSet<>();
+    private boolean dynamic;
+
+    private FragmentVariableScan() {
+    }
+
+    public static FragmentVariableScan scanMacro(Macro macro) {
+        FragmentVariableScan scan = new FragmentVariableScan();
+        String[] paramNames = macro.getArgumentNamesNoCopy();
+        for (int i = 0; i < paramNames.length; i++) {
+            // Parameter defaults are only evaluated when no argument is passed for them, so are kept separately.
+            // The parameters before them are already set when they're evaluated, but the rest of the macro isn't.
+            Expression defaultExp = (Expression) macro.getParameterValue(2 + i * 2);
+            if (defaultExp != null) {
+                FragmentVariableScan defaultScan = new FragmentVariableScan();
+                defaultScan.walk(defaultExp);
+                defaultScan.boundNames.addAll(List.of(paramNames).subList(0, i));
+                defaultScan.removeBoundReferences();
+                scan.parameterDefaultReferences.put(paramNames[i], defaultScan.references);
+                scan.calls.addAll(defaultScan.calls);
+                scan.dynamic |= defaultScan.dynamic;
+            }
+            scan.boundNames.add(paramNames[i]);
+        }
+        if (macro.getCatchAll() != null) {
+            scan.boundNames.add(macro.getCatchAll());
+        }
+        scan.walkChildren(macro);
+        scan.removeBoundReferences();
+        return scan;
+    }
+
+    // The content that's processed when the template is processed or imported, so excluding macro definitions
+    public static FragmentVariableScan scanTopLevel(Template template) {
+        FragmentVariableScan scan = new FragmentVariableScan();
+        scan.walk(template.getRootTreeNode());
+        scan.removeBoundReferences();
+        return scan;
+    }
+
+    public Set<String> getReferences() {
+        return Collections.unmodifiableSet(references);
+    }
+
+    // Keyed by parameter name, only for parameters with defaults
+    public Map<String, Set<String>> getParameterDefaultReferences() {
+        return Collections.unmodifiableMap(parameterDefaultReferences);
+    }
+
+    public List<Call> getCalls() {
+        return Collections.unmodifiableList(calls);
+    }
+
+    public boolean isDynamic() {
+        return dynamic;
+    }
+
+    private void walk(TemplateObject node) {
+        if (node instanceof Macro || node instanceof LibraryLoad) {
+            return;
+        }
+        if (node instanceof Identifier) {
+            references.add(((Identifier) node).getName());
+            return;
+        }
+        if (node instanceof Dot) {
+            String path = toPath((Dot) node);
+            if (path != null) {
+                references.add(path);
+                return;
+            }
+        }
+        if (node instanceof UnifiedCall) {
+            walkCall((UnifiedCall) node);
+            return;
+        }
+        if (node instanceof BuiltinVariable) {
+            // The canonical form is the name with a leading dot
+            dynamic |= DYNAMIC_BUILTIN_VARIABLES.contains(node.getCanonicalForm().substring(1));
+            return;
+        }
+        if (node instanceof Include || node instanceof Interpret || node instanceof BuiltInsForStringsMisc.evalBI
+                || node instanceof VisitNode || node instanceof RecurseNode) {
+            dynamic = true;
+        }
+
+        for (int i = 0; i < node.getParameterCount(); i++) {
+            Object value = node.getParameterValue(i);
+            ParameterRole role = node.getParameterRole(i);
+            if (value instanceof String) {
+                if ((role == ParameterRole.ASSIGNMENT_TARGET && isLocalAssignment(node))
+                        || role == ParameterRole.TARGET_LOOP_VARIABLE) {
+                    boundNames.add((String) value);
+                }
+            } else if (value instanceof Identifier && role == ParameterRole.ARGUMENT_NAME) {
+                boundNames.add(((Identifier) value).getName()); // Lambda parameter
+            } else if (value instanceof TemplateObject) {
+                walk((TemplateObject) value);
+            }
+        }
+        if (node instanceof TemplateElement) {
+            walkChildren((TemplateElement) node);
+        }
+    }
+
+    private void walkChildren(TemplateElement element) {
+        for (int i = 0; i < element.getChildCount(); i++) {
+            walk(element.getChild(i));
+        }
+    }
+
+    private void walkCall(UnifiedCall call) {
+        Set<String> argumentNames = new LinkedHashSet<>();
+        boolean positionalArguments = false;
+        for (int i = 1; i < call.getParameterCount(); i++) {
+            Object value = call.getParameterValue(i);
+            ParameterRole role = call.getParameterRole(i);
+            if (role == ParameterRole.ARGUMENT_NAME) {
+                argumentNames.add((String) value);
+            } else if (role == ParameterRole.ARGUMENT_VALUE) {
+                positionalArguments |= call.getParameterRole(i - 1) != ParameterRole.ARGUMENT_NAME;
+                walk((TemplateObject) value);
+            } else if (role == ParameterRole.TARGET_LOOP_VARIABLE) {
+                boundNames.add((String) value); // Nested content parameter
+            }
+        }
+
+        Expression nameExp = (Expression) call.getParameterValue(0);
+        String name = (nameExp instanceof Identifier) ? ((Identifier) nameExp).getName()
+                : (nameExp instanceof Dot) ? toPath((Dot) nameExp) : null;
+        if (name != null) {
+            calls.add(new Call(name, positionalArguments ? null : argumentNames));
+        } else {
+            walk(nameExp);
+            dynamic = true;
+        }
+        walkChildren(call);
+    }
+
+    private static boolean isLocalAssignment(TemplateObject assignment) {
+        for (int i = 0; i < assignment.getParameterCount(); i++) {
+            if (assignment.getParameterRole(i) == ParameterRole.VARIABLE_SCOPE) {
+                return Integer.valueOf(Assignment.LOCAL).equals(assignment.getParameterValue(i));
+            }
+        }
+        return false;
+    }
+
+    // Returns null if the expression isn't just a chain of keys from a variable
+    private static String toPath(Dot dot) {
+        Object target = dot.getParameterValue(0);
+        String targetPath = (target instanceof Identifier) ? ((Identifier) target).getName()
+                : (target instanceof Dot) ? toPath((Dot) target) : null;
+        return (targetPath == null) ? null : targetPath + "." + dot.getParameterValue(1);
+    }
+
+    private void removeBoundReferences() {
+        references.removeIf(path -> boundNames.contains(rootName(path)));
+        // Calling something held in a bound variable (e.g. a macro passed as a parameter) can't be followed
+        dynamic |= calls.removeIf(call -> boundNames.contains(rootName(call.name())));
+    }
+
+    private static String rootName(String path) {
+        int index = path.indexOf('.');
+        return (index == -1) ? path : path.substring(0, index);
+    }
+
+
+    // The argument names are null when arguments are passed by position
+    public record Call(String name, Set<String> argumentNames) {}
+
+}
@@ -0,0 +1,162 @@
+package freemarker.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import freemarker.template.Template;
+
+// Maps the values of a manual fragment attribute (see IMPL_NOTES) to the macros which a template's top-level if/elseif
+// chain calls for them, e.g. "article" to "ArticleBlock" for <#elseif FRAGMENT == 'article'><@ArticleBlock />, so
+// that the template can be rendered like the equivalent fragment view without evaluating the template or the chain.
+// It lives in this package for the same reason as FragmentMacroCall, since the AST isn't publicly accessible.
+// Only templates whose top-level content is declarations (as for _FragmentCoreAPI.isDeclarationsOnly) apart from a
+// single dispatch are mapped, since anything else at the top level would be skipped. A branch is only mapped when the
+// branches before it can't be taken for its value (i.e. they compare the attribute with other strings or check that
+// it's empty) and its content is just a call to one of the template's macros without arguments. Branches which check
+// that the attribute has content are followed, since they can contain the rest of the dispatch.
+// Values which aren't mapped (e.g. unknown fragments which the template stops for) need the template to be rendered.
+@SuppressWarnings("deprecation")
+public final class ManualFragmentDispatch {
+    private static final Set<String> EQUALS_OPERATORS = Set.of("==", "=");
+    private static final Set<String> HAS_CONTENT_BUILTINS = Set.of("has_content", "hasContent");
+
+    private ManualFragmentDispatch() {
+    }
+
+    // Returns an empty map if the template doesn't dispatch on the attribute in a way that can be mapped
+    public static Map<String, String> findMacroNames(Template template, String attributeName) {
+        TemplateElement root = template.getRootTreeNode();
+        List<TemplateElement> topLevel =
+                (root instanceof MixedContent || root == null) ? getContent(root) : List.of(root);
+        TemplateElement dispatch = null;
+        for (TemplateElement element : topLevel) {
+            if (!_FragmentCoreAPI.isDeclaration(element)) {
+                if (dispatch != null) {
+                    return Map.of();
+                }
+                dispatch = element;
+            }
+        }
+        Map<String, String> macroNames = new HashMap<>();
+        if (dispatch != null) {
+            addBranches(dispatch, attributeName, template, macroNames);
+        }
+        macroNames.values().removeIf(Objects::isNull);
+        return Map.copyOf(macroNames);
+    }
+
+    // The first branch that's taken for a value wins, so values are mapped to null by branches which can be taken
+    // for them but which don't just call a macro, so that later branches don't claim them
+    private static void addBranches(TemplateElement element, String attributeName, Template template,
+            Map<String, String> macroNames) {
+        List<ConditionalBlock> branches = new ArrayList<>();
+        if (element instanceof IfBlock) {
+            for (int i = 0; i < element.getChildCount(); i++) {
+                branches.add((ConditionalBlock) element.getChild(i));
+            }
+        } else if (element instanceof ConditionalBlock) {
+            branches.add((ConditionalBlock) element);
+        }
+
+        for (ConditionalBlock branch : branches) {
+            Expression condition = branch.condition;
+            String value = (condition != null) ? getComparedString(condition, attributeName, EQUALS_OPERATORS) : null;
+            if (value != null) {
+                if (!value.isEmpty() && !macroNames.containsKey(value)) {
+                    macroNames.put(value, getMacroCalled(getContent(branch), template));
+                }
+                // Otherwise the branch is only taken when the attribute is empty, which is never mapped
+            } else if (condition != null && isContentCheck(condition, attributeName)) {
+                // Taken for every value, so later branches can't be
+                List<TemplateElement> content = getContent(branch);
+                if (content.size() == 1) {
+                    addBranches(content.get(0), attributeName, template, macroNames);
+                }
+                return;
+            } else {
+                return; // An else or a condition which can't be mapped
+            }
+        }
+    }
+
+    // Returns the string in a condition like FRAGMENT == 'article' or FRAGMENT! == '', or null if it isn't one
+    private static String getComparedString(Expression condition, String attributeName, Set<String> operators) {
+        if (!(condition instanceof ComparisonExpression) || !operators.contains(condition.getNodeTypeSymbol())) {
+            return null;
+        }
+        Expression left = (Expression) condition.getParameterValue(0);
+        Expression right = (Expression) condition.getParameterValue(1);
+        if (isAttribute(left, attributeName)) {
+            return getLiteralString(right);
+        }
+        return isAttribute(right, attributeName) ? getLiteralString(left) : null;
+    }
+
+    // Whether the condition is only true when the attribute has content, e.g. FRAGMENT?has_content or FRAGMENT??
+    private static boolean isContentCheck(Expression condition, String attributeName) {
+        if (condition instanceof BuiltIn) {
+            BuiltIn builtIn = (BuiltIn) condition;
+            return HAS_CONTENT_BUILTINS.contains(builtIn.key) && isAttribute(builtIn.target, attributeName);
+        }
+        if (condition instanceof ExistsExpression) {
+            return isAttribute((Expression) condition.getParameterValue(0), attributeName);
+        }
+        return "".equals(getComparedString(condition, attributeName, Set.of("!=")));
+    }
+
+    // Either the attribute itself or with a default, since the default doesn't matter when the attribute is set
+    private static boolean isAttribute(Expression exp, String attributeName) {
+        if (exp instanceof DefaultToExpression) {
+            exp = (Expression) exp.getParameterValue(0);
+        }
+        return exp instanceof Identifier && ((Identifier) exp).getName().equals(attributeName);
+    }
+
+    private static String getLiteralString(Expression exp) {
+        if (exp instanceof StringLiteral && exp.isLiteral()) {
+            return ((StringLiteral) exp).getAsString();
+        }
+        return null;
+    }
+
+    // Returns null unless the content is a single call of one of the template's macros without any arguments,
+    // loop variables or nested content, e.g. <@ArticleBlock />
+    private static String getMacroCalled(List<TemplateElement> content, Template template) {
+        if (content.size() != 1 || !(content.get(0) instanceof UnifiedCall)) {
+            return null;
+        }
+        UnifiedCall call = (UnifiedCall) content.get(0);
+        if (call.getParameterCount() != 1 || call.getChildCount() != 0
+                || !(call.getParameterValue(0) instanceof Identifier)) {
+            return null;
+        }
+        String macroName = ((Identifier) call.getParameterValue(0)).getName();
+        return template.getMacros().containsKey(macroName) ? macroName : null;
+    }
+
+    // The element's children, ignoring whitespace and comments
+    private static List<TemplateElement> getContent(TemplateElement element) {
+        List<TemplateElement> content = new ArrayList<>();
+        if (element != null) {
+            addContent(element, content);
+        }
+        return content;
+    }
+
+    private static void addContent(TemplateElement element, List<TemplateElement> content) {
+        for (int i = 0; i < element.getChildCount(); i++) {
+            TemplateElement child = element.getChild(i);
+            if (child instanceof MixedContent) {
+                addContent(child, content);
+            } else if (!(child instanceof Comment)
+                    && !(child instanceof TextBlock && child.getCanonicalForm().isBlank())) {
+                content.add(child);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+package freemarker.core;
+
+import java.io.IOException;
+
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+
+// Stands in for an import of a library whose namespace only needs macros defining (see SharedLibrary), by importing
+// a template which is shared between renders rather than looking up and processing the library for every render.
+// When there's no shared template, e.g. since the library has been changed to have side effects, it's imported as
+// usual.
+@SuppressWarnings({ "deprecation", "unchecked" }) // TemplateElement uses raw types
+public final class SharedLibraryLoad extends TemplateElement {
+    private final LibraryLoad libraryLoad;
+    private final Library library;
+
+    public SharedLibraryLoad(LibraryLoad libraryLoad, Library library) {
+        this.libraryLoad = libraryLoad;
+        this.library = library;
+        copyLocationFrom(libraryLoad);
+    }
+
+    @Override
+    TemplateElement[] accept(Environment env) throws TemplateException, IOException {
+        Template sharedTemplate = library.getSharedTemplate();
+        if (sharedTemplate == null) {
+            env.visit(libraryLoad);
+        } else {
+            env.importLib(sharedTemplate, _FragmentCoreAPI.getNamespaceVariable(libraryLoad));
+        }
+        return null;
+    }
+
+    @Override
+    protected String dump(boolean canonical) {
+        return libraryLoad.dump(canonical);
+    }
+
+    @Override
+    String getNodeTypeSymbol() {
+        return libraryLoad.getNodeTypeSymbol();
+    }
+
+    @Override
+    int getParameterCount() {
+        return libraryLoad.getParameterCount();
+    }
+
+    @Override
+    Object getParameterValue(int idx) {
+        return libraryLoad.getParameterValue(idx);
+    }
+
+    @Override
+    ParameterRole getParameterRole(int idx) {
+        return libraryLoad.getParameterRole(idx);
+    }
+
+    @Override
+    boolean isNestedBlockRepeater() {
+        return false;
+    }
+
+
+    public interface Library {
+        // Returns null if the library should be imported as usual
+        Template getSharedTemplate() throws IOException;
+    }
+
+}
@@ -0,0 +1,71 @@
+package freemarker.core;
+
+import freemarker.template.Template;
+
+// Like FreeMarker's own _CoreAPI, this exposes internals which the fragment support needs, but that aren't public.
+@SuppressWarnings("deprecation")
+public final class _FragmentCoreAPI {
+
+    private _FragmentCoreAPI() {
+        // Not meant to be instantiated
+    }
+
+    // The variable that the imported library's namespace is assigned to, i.e. "lib" in <#import "x.ftlh" as lib>
+    public static String getNamespaceVariable(LibraryLoad libraryLoad) {
+        return (String) libraryLoad.getParameterValue(1);
+    }
+
+    // The imported template name as written in the template (so possibly relative),
+    // or null if it's not a literal (e.g. it contains an interpolation).
+    public static String getLiteralTemplateName(LibraryLoad libraryLoad) {
+        Object nameExp = libraryLoad.getParameterValue(0);
+        if (nameExp instanceof StringLiteral && ((StringLiteral) nameExp).isLiteral()) {
+            return ((StringLiteral) nameExp).getAsString();
+        }
+        return null;
+    }
+
+    // Whether the template's top-level content only defines macros and imports libraries (ignoring whitespace),
+    // so that processing it has no effect other than setting up its namespace.
+    public static boolean isDeclarationsOnly(Template template) {
+        TemplateElement root = template.getRootTreeNode();
+        if (root instanceof MixedContent) {
+            for (int i = 0; i < root.getChildCount(); i++) {
+                if (!isDeclaration(root.getChild(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return root == null || isDeclaration(root);
+    }
+
+    // The number of elements and expressions in the template's tree, for estimating its size. Only the template's own
+    // tree is counted, so not the macros that are added to it from another template (see DirectInvocation).
+    public static int countTreeNodes(Template template) {
+        TemplateElement root = template.getRootTreeNode();
+        return (root == null) ? 0 : countTreeNodes(root);
+    }
+
+    private static int countTreeNodes(TemplateObject node) {
+        int count = 1;
+        for (int i = 0; i < node.getParameterCount(); i++) {
+            if (node.getParameterValue(i) instanceof Expression) {
+                count += countTreeNodes((Expression) node.getParameterValue(i));
+            }
+        }
+        if (node instanceof TemplateElement) {
+            TemplateElement element = (TemplateElement) node;
+            for (int i = 0; i < element.getChildCount(); i++) {
+                count += countTreeNodes(element.getChild(i));
+            }
+        }
+        return count;
+    }
+
+    static boolean isDeclaration(TemplateElement element) {
+        return element instanceof Macro || element instanceof LibraryLoad || element instanceof Comment
+                || (element instanceof TextBlock && element.getCanonicalForm().isBlank());
+    }
+
+}
@@ -0,0 +1,75 @@
+package example.freemarker.fragments;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import freemarker.core.FragmentMacroCall;
+import freemarker.template.SimpleHash;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+
+public class BatchRenderTest extends FreeMarkerTest {
+
+    @Test
+    public void testRendersEachValueInOneEnvironment() throws TemplateException, IOException {
+        Template fragment = fragmentTemplate(null, "Row");
+        String expected = """
+                <li>1 Ann</li>
+                <li>2 Bob</li>
+                <li>3 Cat</li>""";
+        assertEquals(expected, processEach(fragment, Map.of(), List.of("Ann", "Bob", "Cat")));
+    }
+
+    @Test
+    public void testSharedModelAndSetup() throws TemplateException, IOException {
+        Template fragment = fragmentTemplate("Setup", "Row");
+        String expected = """
+                <li>1 Hi Ann</li>
+                <li>2 Hi Bob</li>""";
+        assertEquals(expected, processEach(fragment, Map.of("heading", "Hi "), List.of("Ann", "Bob")));
+    }
+
+    @Test
+    public void testImportsAvailable() throws TemplateException, IOException {
+        Template fragment = fragmentTemplate(null, "Lib");
+        String expected = """
+                imported macro 1
+                imported macro 1""";
+        assertEquals(expected, processEach(fragment, Map.of(), List.of(1, 2)));
+    }
+
+    @Test
+    public void testNoValues() throws TemplateException, IOException {
+        Template fragment = fragmentTemplate(null, "Row");
+        assertEquals("", processEach(fragment, Map.of(), List.of()));
+    }
+
+    @Test
+    public void testOnlyFragmentTemplates() throws IOException {
+        Template template = getTemplate("/templates/batchRows.ftlh");
+        assertFalse(FragmentMacroCall.isRootOf(template));
+        assertThrows(IllegalArgumentException.class,
+                () -> processEach(template, Map.of(), List.of("Ann")));
+    }
+
+    private static Template fragmentTemplate(String autoCallMacro, String macroName) throws IOException {
+        Template template = getTemplate("/templates/batchRows.ftlh");
+        return new FragmentTemplate.DirectInvocation(autoCallMacro)
+                .build(macroName, "batchRows :: " + macroName, template);
+    }
+
+    private static String processEach(Template template, Map<String, ?> model, List<?> values)
+            throws TemplateException, IOException {
+        StringWriter writer = new StringWriter();
+        FragmentMacroCall.processEach(template, new SimpleHash(model, template.getObjectWrapper()),
+                "person", values, writer);
+        return writer.toString().trim();
+    }
+
+}
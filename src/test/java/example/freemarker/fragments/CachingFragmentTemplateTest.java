@@ -0,0 +1,93 @@
+package example.freemarker.fragments;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.jupiter.api.Test;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+
+public class CachingFragmentTemplateTest extends FreeMarkerTest {
+
+    @Test
+    public void testFragmentReused() throws TemplateException, IOException {
+        var fragmentBuilder = new CachingFragmentTemplate(new FragmentTemplate.FullyAutomatic(), 10);
+        Template template = getTemplate("/templates/autoFragment.ftlh");
+
+        Template fragment = fragmentBuilder.build("Macro1", "autoFragment :: Macro1", template);
+        assertEquals("macro 1", process(fragment));
+        assertSame(fragment, fragmentBuilder.build("Macro1", "autoFragment :: Macro1", template));
+
+        Template otherFragment = fragmentBuilder.build("Macro2", "autoFragment :: Macro2", template);
+        assertNotSame(fragment, otherFragment);
+        assertEquals("macro 2", process(otherFragment));
+        assertEquals(2, fragmentBuilder.size());
+    }
+
+    @Test
+    public void testFragmentRebuiltWhenBaseTemplateReloaded() throws TemplateException, IOException {
+        var fragmentBuilder = new CachingFragmentTemplate(new FragmentTemplate.FullyAutomatic(), 10);
+        Configuration config = newConfiguration();
+        Template template = config.getTemplate("/templates/autoFragment.ftlh");
+        Template fragment = fragmentBuilder.build("Macro1", "autoFragment :: Macro1", template);
+
+        // Equivalent to FreeMarker's template cache noticing the template changed
+        config.removeTemplateFromCache("/templates/autoFragment.ftlh");
+        Template reloadedTemplate = config.getTemplate("/templates/autoFragment.ftlh");
+        assertNotSame(template, reloadedTemplate);
+
+        Template reloadedFragment = fragmentBuilder.build("Macro1", "autoFragment :: Macro1", reloadedTemplate);
+        assertNotSame(fragment, reloadedFragment);
+        assertEquals("macro 1", process(reloadedFragment));
+        assertEquals(1, fragmentBuilder.size());
+    }
+
+    @Test
+    public void testLookupByKey() throws IOException {
+        var fragmentBuilder = new CachingFragmentTemplate(new FragmentTemplate.FullyAutomatic(), 10);
+        Configuration config = newConfiguration();
+        Template template = config.getTemplate("/templates/autoFragment.ftlh");
+        CachingFragmentTemplate.Key key = CachingFragmentTemplate.key(List.of("Macro1"), template);
+        assertNull(fragmentBuilder.getCached(key, template));
+
+        Template fragment = fragmentBuilder.build("Macro1", "autoFragment :: Macro1", template);
+        assertSame(fragment, fragmentBuilder.getCached(key, template));
+
+        // Still the key once the template is reloaded, but not for another locale
+        config.removeTemplateFromCache("/templates/autoFragment.ftlh");
+        Template reloadedTemplate = config.getTemplate("/templates/autoFragment.ftlh");
+        assertTrue(key.matches(reloadedTemplate));
+        assertNull(fragmentBuilder.getCached(key, reloadedTemplate));
+        assertFalse(key.matches(config.getTemplate("/templates/autoFragment.ftlh", Locale.CHINA)));
+    }
+
+    @Test
+    public void testCacheBounded() throws IOException {
+        var fragmentBuilder = new CachingFragmentTemplate(new FragmentTemplate.FullyAutomatic(), 2);
+        Template template = getTemplate("/templates/autoFragment.ftlh");
+        for (String macroName : new String[] { "Macro1", "Macro2", "Macro3", "Macro4" }) {
+            fragmentBuilder.build(macroName, "autoFragment :: " + macroName, template);
+            assertTrue(fragmentBuilder.size() <= 2);
+        }
+    }
+
+    @Test
+    public void testEntriesOverByteLimitKeptSoftly() throws IOException {
+        var fragmentBuilder = new CachingFragmentTemplate(new FragmentTemplate.FullyAutomatic(), 10, 1, true);
+        Template template = getTemplate("/templates/autoFragment.ftlh");
+        Template fragment = fragmentBuilder.build("Macro1", "autoFragment :: Macro1", template);
+        fragmentBuilder.build("Macro2", "autoFragment :: Macro2", template);
+
+        // Soft references are only cleared when the memory is needed
+        assertSame(fragment, fragmentBuilder.build("Macro1", "autoFragment :: Macro1", template));
+        assertEquals(2, fragmentBuilder.size());
+        assertEquals(0, fragmentBuilder.bytes());
+        assertTrue(fragmentBuilder.entries().stream().allMatch(CachingFragmentTemplate.EntryInfo::soft));
+    }
+
+}
@@ -0,0 +1,82 @@
+package example.freemarker.fragments;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class ConcurrencyLimitTest {
+
+    @Test
+    public void testRejectedWhenQueueFull() throws Exception {
+        ConcurrencyLimit limit = new ConcurrencyLimit(1, 0, Duration.ofSeconds(10), Duration.ofSeconds(1));
+        assertTrue(limit.tryAcquire());
+        assertFalse(limit.tryAcquire());
+        assertEquals(1, limit.getActive());
+        assertEquals(1, limit.getRejected());
+
+        limit.release();
+        assertTrue(limit.tryAcquire());
+        limit.release();
+        assertEquals(0, limit.getActive());
+    }
+
+    @Test
+    public void testQueuedUntilReleased() throws Exception {
+        ConcurrencyLimit limit = new ConcurrencyLimit(1, 1, Duration.ofSeconds(10), Duration.ofSeconds(1));
+        assertTrue(limit.tryAcquire());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CountDownLatch started = new CountDownLatch(1);
+            Future<Boolean> queued = executor.submit(() -> {
+                started.countDown();
+                return limit.tryAcquire();
+            });
+            started.await();
+            while (limit.getQueued() == 0) {
+                Thread.onSpinWait();
+            }
+            assertFalse(limit.tryAcquire()); // The queue is full
+
+            limit.release();
+            assertTrue(queued.get(10, TimeUnit.SECONDS));
+            assertEquals(0, limit.getQueued());
+            assertEquals(1, limit.getRejected());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRejectedAfterMaxWait() throws Exception {
+        ConcurrencyLimit limit = new ConcurrencyLimit(1, 1, Duration.ofMillis(10), Duration.ofSeconds(1));
+        assertTrue(limit.tryAcquire());
+        assertFalse(limit.tryAcquire());
+        assertEquals(0, limit.getQueued());
+    }
+
+    @Test
+    public void testRejectionResponse() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(1, 0, Duration.ZERO, Duration.ofMillis(1500));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        limit.reject(new MockHttpServletRequest(), response);
+        assertEquals(503, response.getStatus());
+        assertEquals("2", response.getHeader("Retry-After"));
+        assertNull(response.getHeader("HX-Trigger"));
+
+        MockHttpServletRequest htmxRequest = new MockHttpServletRequest();
+        htmxRequest.addHeader("HX-Request", "true");
+        response = new MockHttpServletResponse();
+        limit.reject(htmxRequest, response);
+        assertEquals("{\"fragmentRejected\":{\"retryAfter\":2}}", response.getHeader("HX-Trigger"));
+    }
+
+}
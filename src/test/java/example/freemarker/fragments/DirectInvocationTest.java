@@ -0,0 +1,11 @@
+package example.freemarker.fragments;
+
+// Runs the same fragment tests as for FullyAutomatic, since the output should be identical.
+public class DirectInvocationTest extends FullAutoTest {
+
+    @Override
+    protected FragmentTemplate newFragmentTemplateBuilder(String autoCallMacro) {
+        return new FragmentTemplate.DirectInvocation(autoCallMacro);
+    }
+
+}
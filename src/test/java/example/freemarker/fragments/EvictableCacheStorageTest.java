@@ -0,0 +1,103 @@
+package example.freemarker.fragments;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.view.freemarker.FreeMarkerConfigurer;
+
+import freemarker.cache.CacheStorage;
+import freemarker.cache.ConcurrentCacheStorage;
+import freemarker.cache.SoftCacheStorage;
+import freemarker.cache.StrongCacheStorage;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+
+public class EvictableCacheStorageTest extends FreeMarkerTest {
+
+    @Test
+    public void testTemplateSizesAccounted() throws IOException {
+        Configuration cfg = newConfiguration();
+        EvictableCacheStorage cacheStorage = new EvictableCacheStorage(new StrongCacheStorage());
+        cfg.setCacheStorage(cacheStorage);
+        Template template = cfg.getTemplate("/templates/autoFragment.ftlh");
+
+        List<EvictableCacheStorage.TemplateInfo> entries = cacheStorage.entries();
+        assertEquals(1, entries.size());
+        assertEquals(template.getName(), entries.get(0).name());
+        assertEquals(TemplateSizes.estimate(template), entries.get(0).estimatedBytes());
+        assertEquals(TemplateSizes.estimate(template), cacheStorage.bytes());
+
+        cfg.clearTemplateCache();
+        assertEquals(0, cacheStorage.bytes());
+    }
+
+    @Test
+    public void testTemplatesRemovedOverByteLimit() throws IOException {
+        Configuration cfg = newConfiguration();
+        EvictableCacheStorage cacheStorage = new EvictableCacheStorage(new StrongCacheStorage(), true, 0, 10, 1);
+        cfg.setCacheStorage(cacheStorage);
+        cfg.getTemplate("/templates/autoFragment.ftlh");
+        Template template = cfg.getTemplate("/templates/autoFragmentImport.ftlh");
+
+        // The template just loaded is kept, even though it's over the limit alone
+        assertEquals(1, cacheStorage.getSize());
+        assertEquals(List.of(template), List.copyOf(cacheStorage.getTemplates().values()));
+    }
+
+    @Test
+    public void testCountLimits() throws IOException {
+        Configuration cfg = newConfiguration();
+        EvictableCacheStorage cacheStorage =
+                new EvictableCacheStorage(new SoftCacheStorage(), true, 1, 2, Long.MAX_VALUE);
+        cfg.setCacheStorage(cacheStorage);
+        cfg.getTemplate("/templates/autoFragment.ftlh");
+        cfg.getTemplate("/templates/autoFragmentImport.ftlh");
+        assertEquals(2, cacheStorage.getSize());
+        assertEquals(1, cacheStorage.strongSize());
+
+        Template template = cfg.getTemplate("/templates/batchRows.ftlh");
+        assertEquals(2, cacheStorage.getSize());
+        assertEquals(1, cacheStorage.strongSize());
+        assertTrue(cacheStorage.getTemplates().containsValue(template));
+    }
+
+    @Test
+    public void testCountLimitsWithoutReadingTemplates() throws IOException {
+        Configuration cfg = newConfiguration();
+        EvictableCacheStorage cacheStorage =
+                new EvictableCacheStorage(new SoftCacheStorage(), false, 1, 2, Long.MAX_VALUE);
+        cfg.setCacheStorage(cacheStorage);
+        cfg.getTemplate("/templates/autoFragment.ftlh");
+        cfg.getTemplate("/templates/autoFragmentImport.ftlh");
+        assertEquals(2, cacheStorage.getSize());
+        assertEquals(1, cacheStorage.strongSize());
+
+        Template template = cfg.getTemplate("/templates/batchRows.ftlh");
+        assertSame(template, cfg.getTemplate("/templates/batchRows.ftlh"));
+        assertEquals(2, cacheStorage.getSize());
+        assertEquals(1, cacheStorage.strongSize());
+        // Nothing is known about the templates
+        assertEquals(0, cacheStorage.bytes());
+        assertEquals(Map.of(), cacheStorage.getTemplates());
+        assertEquals(List.of(), cacheStorage.entries());
+    }
+
+    // So that TemplateCache doesn't lock the storage for every lookup
+    @Test
+    public void testInstalledStorageConcurrent() {
+        FreeMarkerConfigurer configurer = new FreeMarkerConfigurer();
+        configurer.setConfiguration(newConfiguration());
+        new FreeMarkerAutoFragmentConfig.TemplateCacheInstaller().postProcessAfterInitialization(configurer, "config");
+
+        CacheStorage cacheStorage = configurer.getConfiguration().getCacheStorage();
+        assertInstanceOf(EvictableCacheStorage.class, cacheStorage);
+        assertTrue(((ConcurrentCacheStorage) cacheStorage).isConcurrent());
+        // FreeMarker's private cache entries are only read when opted in
+        assertFalse(((EvictableCacheStorage) cacheStorage).readsTemplates());
+    }
+
+}
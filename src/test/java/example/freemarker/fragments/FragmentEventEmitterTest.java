@@ -0,0 +1,65 @@
+package example.freemarker.fragments;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class FragmentEventEmitterTest extends FreeMarkerTest {
+
+    @Test
+    public void testEachLineIsDataLine() throws Exception {
+        FragmentEventEmitter emitter = newEmitter("Item");
+        String expected = """
+                event:Item
+                data:<li>Ann &amp; Bob</li>
+                data:<li>first</li>
+
+                """;
+        assertEquals(expected, emitter.renderEvent(Map.of("name", "Ann & Bob", "note", "first")));
+    }
+
+    @Test
+    public void testLineBreaksInOutput() throws Exception {
+        FragmentEventEmitter emitter = newEmitter(null);
+        String expected = """
+                data:<li>name</li>
+                data:<li>a
+                data:b
+                data:c
+                data:</li>
+
+                """;
+        assertEquals(expected, emitter.renderEvent(Map.of("name", "name", "note", "a\r\nb\rc\n")));
+    }
+
+    @Test
+    public void testBufferIsReused() throws Exception {
+        FragmentEventEmitter emitter = newEmitter("Item");
+        emitter.renderEvent(Map.of("name", "first name", "note", "first note"));
+        String event = emitter.renderEvent(Map.of("name", "second", "note", "note"));
+        assertEquals("event:Item\ndata:<li>second</li>\ndata:<li>note</li>\n\n", event);
+    }
+
+    @Test
+    public void testEmptyOutput() throws Exception {
+        assertEquals("data:\n\n", newEmitter(null, "Empty").renderEvent(Map.of()));
+        assertEquals("event:Empty\ndata:\n\n", newEmitter("Empty", "Empty").renderEvent(Map.of()));
+    }
+
+    private static FragmentEventEmitter newEmitter(String eventName) {
+        return newEmitter(eventName, "Item");
+    }
+
+    private static FragmentEventEmitter newEmitter(String eventName, String macroName) {
+        var view = new FreeMarkerAutoFragmentConfig.CustomFreeMarkerView();
+        view.setConfiguration(newConfiguration());
+        view.setUrl("/templates/fragmentEvents.ftlh");
+        view.fragmentView = FragmentViews.FragmentViewName.parse("fragmentEvents :: " + macroName);
+        return new FragmentEventEmitter(view, eventName, Locale.ROOT, Duration.ofSeconds(1));
+    }
+
+}
@@ -0,0 +1,85 @@
+package example.freemarker.fragments;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import freemarker.template.Configuration;
+
+public class FragmentIndexGeneratorTest extends FreeMarkerTest {
+    private static final Path TEMPLATES_DIRECTORY = Path.of("src/test/resources/templates");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testStringLiteralsOutsideComments() {
+        String source = """
+                // Not "a :: Comment"
+                /* Nor "a :: Block" */
+                class Controller {
+                    String view() { return "view :: Fragment"; } // e.g. "view :: Other"
+                    char quote = '"';
+                    String escaped = "\\"quoted\\"";
+                }
+                """;
+        assertEquals(List.of("view :: Fragment", "\\\"quoted\\\""),
+                FragmentIndexGenerator.findStringLiterals(source));
+    }
+
+    @Test
+    public void testUnknownMacrosFound() throws IOException {
+        Configuration cfg = newConfiguration();
+        assertEquals(List.of(),
+                FragmentIndexGenerator.checkFragmentView(cfg, "templates/autoFragmentImport :: lib.LibMacro2"));
+        String viewName = "templates/autoFragment :: Macro1, BadMacro";
+        assertEquals(List.of("Unknown fragment macro \"BadMacro\" for view \"" + viewName + "\""),
+                FragmentIndexGenerator.checkFragmentView(cfg, viewName));
+        assertEquals(List.of("Unknown template for fragment view \"templates/missing :: Macro1\""),
+                FragmentIndexGenerator.checkFragmentView(cfg, "templates/missing :: Macro1"));
+    }
+
+    @Test
+    public void testIndexGenerated() throws IOException {
+        Files.writeString(directory.resolve("Controller.java"), """
+                class Controller {
+                    String row() { return "autoFragment :: Macro1"; }
+                    String page() { return "autoFragment"; }
+                    String ignored() { return "autoFragment :: Ignored"; }
+                }
+                """);
+        Path ignoredFile = Files.writeString(directory.resolve("ignored.txt"), """
+                # Deliberately unknown
+                autoFragment :: Ignored
+                """);
+        Path indexFile = directory.resolve("META-INF/fragment-index.txt");
+
+        Set<String> ignoredViewNames = FragmentIndexGenerator.readIgnoredViewNames(ignoredFile);
+        assertEquals(Set.of("autoFragment :: Ignored"), ignoredViewNames);
+        FragmentIndexGenerator.generate(TEMPLATES_DIRECTORY, directory, indexFile, ignoredViewNames);
+        assertEquals(List.of("autoFragment :: Macro1"), Files.readAllLines(indexFile));
+    }
+
+    @Test
+    public void testUnknownFragmentFailsGeneration() throws IOException {
+        Files.writeString(directory.resolve("Controller.java"), """
+                class Controller {
+                    String row() { return "autoFragment :: BadMacro"; }
+                }
+                """);
+        Path indexFile = directory.resolve("fragment-index.txt");
+
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> FragmentIndexGenerator.generate(TEMPLATES_DIRECTORY, directory, indexFile, Set.of()));
+        assertTrue(e.getMessage().contains("Unknown fragment macro \"BadMacro\""), e.getMessage());
+        assertFalse(Files.exists(indexFile));
+    }
+
+}
@@ -0,0 +1,34 @@
+package example.freemarker.fragments;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import freemarker.template.Template;
+
+public class FragmentMacrosTest extends FreeMarkerTest {
+
+    @Test
+    public void testFindLocalMacro() throws IOException {
+        Template template = getTemplate("/templates/autoFragment.ftlh");
+        assertEquals("Macro1", FragmentMacros.find("Macro1", template).getName());
+        assertNull(FragmentMacros.find("BadMacro", template));
+    }
+
+    @Test
+    public void testFindImportedMacro() throws IOException {
+        Template template = getTemplate("/templates/autoFragmentImport.ftlh");
+        assertEquals("LibMacro2", FragmentMacros.find("lib.LibMacro2", template).getName());
+        assertNull(FragmentMacros.find("lib.BadMacro", template));
+        assertNull(FragmentMacros.find("badLib.LibMacro2", template));
+    }
+
+    @Test
+    public void testFindNestedImportedMacro() throws IOException {
+        Template template = getTemplate("/templates/autoFragmentImportNesting.ftlh");
+        assertEquals("LibMacro1", FragmentMacros.find("lib.nested.LibMacro1", template).getName());
+    }
+
+}
@@ -0,0 +1,61 @@
+package example.freemarker.fragments;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.StringWriter;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import freemarker.template.Configuration;
+import freemarker.template.TemplateException;
+
+public class FragmentMetricsTest extends FreeMarkerTest {
+
+    @Test
+    public void testRecordedForView() throws Exception {
+        var registry = new SimpleMeterRegistry();
+        Configuration cfg = newConfiguration();
+        var view = newView(cfg, "autoFragment :: Macro1");
+        view.metrics = new FragmentMetrics(registry, "autoFragment", "Macro1");
+
+        for (int i = 0; i < 2; i++) {
+            StringWriter writer = new StringWriter();
+            view.render(Map.of(), Locale.UK, writer);
+            assertEquals("macro 1\n", writer.toString());
+        }
+
+        Tags tags = Tags.of("view", "autoFragment", "fragment", "Macro1");
+        assertEquals(1, registry.get("freemarker.fragment.build").tags(tags).timer().count());
+        assertEquals(2, registry.get("freemarker.fragment.render").tags(tags).timer().count());
+        assertEquals(16, registry.get("freemarker.fragment.output").tags(tags).summary().totalAmount());
+        assertEquals(1, registry.get("freemarker.fragment.cache").tags(tags).tag("result", "miss").counter().count());
+        assertEquals(1, registry.get("freemarker.fragment.cache").tags(tags).tag("result", "hit").counter().count());
+        assertEquals(0, registry.get("freemarker.fragment.failures").tags(tags).counters().stream()
+                .mapToDouble(Counter::count).sum());
+    }
+
+    @Test
+    public void testFailuresHaveFixedTags() throws Exception {
+        var registry = new SimpleMeterRegistry();
+        var view = newView(newConfiguration(), "autoFragment :: BadMacro");
+        view.metrics = new FragmentMetrics(registry, "autoFragment", "BadMacro");
+
+        for (int i = 0; i < 2; i++) {
+            assertThrows(TemplateException.class, () -> view.render(Map.of(), Locale.UK, new StringWriter()));
+        }
+
+        Tags tags = Tags.of("view", "autoFragment", "fragment", "BadMacro");
+        assertEquals(2, registry.get("freemarker.fragment.failures").tags(tags).tag("cause", "template")
+                .counter().count());
+        // Registered up front, rather than by the exception
+        assertEquals(3, registry.get("freemarker.fragment.failures").tags(tags).counters().size());
+        assertEquals(0, registry.get("freemarker.fragment.render").tags(tags).timer().count());
+    }
+
+}
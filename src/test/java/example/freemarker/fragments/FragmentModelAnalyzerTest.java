@@ -0,0 +1,49 @@
+package example.freemarker.fragments;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import freemarker.template.Template;
+
+public class FragmentModelAnalyzerTest extends FreeMarkerTest {
+
+    @Test
+    public void testFragmentNeeds() throws IOException {
+        Template template = getTemplate("/templates/autoFragmentModel.ftlh");
+
+        // The default for the fragment's parameter is used, but the one for the library macro's isn't
+        FragmentNeeds needs = FragmentModelAnalyzer.analyze(template, List.of("Row"));
+        assertEquals(new FragmentNeeds(Set.of("person", "badgeClass"), true), needs);
+        assertTrue(needs.needs("person"));
+        assertFalse(needs.needs("people"));
+    }
+
+    @Test
+    public void testFragmentNeedsFollowsFunctionsAndAssignments() throws IOException {
+        Template template = getTemplate("/templates/autoFragmentModel.ftlh");
+        FragmentNeeds needs = FragmentModelAnalyzer.analyze(template, List.of("Summary"));
+        assertEquals(new FragmentNeeds(Set.of("heading", "stats", "countFormat"), true), needs);
+    }
+
+    @Test
+    public void testFullTemplateNeeds() throws IOException {
+        Template template = getTemplate("/templates/autoFragmentModel.ftlh");
+        FragmentNeeds needs = FragmentModelAnalyzer.analyze(template, null);
+        assertEquals(new FragmentNeeds(Set.of("title", "people", "badgeClass"), true), needs);
+    }
+
+    @Test
+    public void testIncompleteNeeds() throws IOException {
+        Template template = getTemplate("/templates/autoFragmentModel.ftlh");
+        FragmentNeeds needs = FragmentModelAnalyzer.analyze(template, List.of("Dynamic"));
+        assertFalse(needs.complete());
+        assertTrue(needs.needs("anything"));
+        assertFalse(FragmentModelAnalyzer.analyze(template, List.of("BadMacro")).complete());
+    }
+
+}
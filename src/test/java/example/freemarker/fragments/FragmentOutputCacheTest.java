@@ -0,0 +1,117 @@
+package example.freemarker.fragments;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.View;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+
+public class FragmentOutputCacheTest extends FreeMarkerTest {
+
+    @Test
+    public void testOutputCachedByAttributeValues() throws IOException {
+        var cache = new FragmentOutputCache(10, Duration.ofMinutes(1));
+        Template template = getTemplate("/templates/autoFragment.ftlh");
+        var key = new FragmentOutputCache.Key("autoFragment :: Macro1", Locale.UK, Map.of("person", "John"));
+
+        assertNull(cache.get(key, template));
+        FragmentOutputCache.Output output = cache.put(key, template, "macro 1");
+        assertSame(output, cache.get(
+                new FragmentOutputCache.Key("autoFragment :: Macro1", Locale.UK, Map.of("person", "John")), template));
+        assertNull(cache.get(
+                new FragmentOutputCache.Key("autoFragment :: Macro1", Locale.UK, Map.of("person", "Paul")), template));
+
+        // The same output gets the same ETag, whichever key it's for
+        var otherKey = new FragmentOutputCache.Key("autoFragment :: Macro1", Locale.UK, Map.of("person", "Paul"));
+        assertEquals(output.etag(), cache.put(otherKey, template, "macro 1").etag());
+        assertNotEquals(output.etag(), cache.put(otherKey, template, "macro 2").etag());
+    }
+
+    @Test
+    public void testOutputNotUsedWhenTemplateReloadedOrExpired() throws IOException {
+        var cache = new FragmentOutputCache(10, Duration.ofMinutes(1));
+        Configuration config = newConfiguration();
+        Template template = config.getTemplate("/templates/autoFragment.ftlh");
+        var key = new FragmentOutputCache.Key("autoFragment :: Macro1", Locale.UK, Map.of());
+        cache.put(key, template, "macro 1");
+
+        config.removeTemplateFromCache("/templates/autoFragment.ftlh");
+        assertNull(cache.get(key, config.getTemplate("/templates/autoFragment.ftlh")));
+
+        var expiringCache = new FragmentOutputCache(10, Duration.ZERO);
+        expiringCache.put(key, template, "macro 1");
+        assertNull(expiringCache.get(key, template));
+    }
+
+    @Test
+    public void testCacheBounded() throws IOException {
+        var cache = new FragmentOutputCache(2, Duration.ofMinutes(1));
+        Template template = getTemplate("/templates/autoFragment.ftlh");
+        for (String name : new String[] { "John", "Paul", "George", "Ringo" }) {
+            cache.put(new FragmentOutputCache.Key("view", Locale.UK, Map.of("name", name)), template, name);
+            assertTrue(cache.size() <= 2);
+        }
+    }
+
+    @Test
+    public void testFingerprint() {
+        List<Object> items = new ArrayList<>(List.of("a", 1));
+        Object fingerprint = FragmentOutputCache.fingerprint(Map.of("items", items));
+        assertEquals(FragmentOutputCache.fingerprint(Map.of("items", List.of("a", 1))), fingerprint);
+
+        // Taken when the output is looked up, so later changes don't match it
+        items.add("b");
+        assertNotEquals(FragmentOutputCache.fingerprint(Map.of("items", items)), fingerprint);
+
+        assertSame(FragmentOutputCache.UNCACHEABLE,
+                FragmentOutputCache.fingerprint(List.of(new Person(1, "John", "john@example.com"))));
+    }
+
+    @Test
+    public void testNotModifiedUntilModelChanges() throws Exception {
+        var view = newView(newConfiguration(), "autoFragmentModel :: Summary");
+        view.outputCache = new FragmentOutputCache(10, Duration.ofMinutes(1));
+        List<String> items = new ArrayList<>(List.of("a", "b"));
+        Map<String, Object> model = Map.of(
+                "heading", "Items", "countFormat", "0", "stats", Map.of("count", 2, "items", items));
+
+        MockHttpServletResponse response = render(view, model, null);
+        assertEquals(200, response.getStatus());
+        assertEquals("Items: 2\n    ab", response.getContentAsString().trim());
+        String etag = response.getHeader("ETag");
+        assertNotNull(etag);
+
+        response = render(view, model, etag);
+        assertEquals(304, response.getStatus());
+        assertEquals("", response.getContentAsString());
+
+        items.add("c");
+        response = render(view, model, etag);
+        assertEquals(200, response.getStatus());
+        assertEquals("Items: 2\n    abc", response.getContentAsString().trim());
+        assertNotEquals(etag, response.getHeader("ETag"));
+    }
+
+    private static MockHttpServletResponse render(View view, Map<String, ?> model, String ifNoneMatch)
+            throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/summary");
+        if (ifNoneMatch != null) {
+            request.addHeader("If-None-Match", ifNoneMatch);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        view.render(model, request, response);
+        return response;
+    }
+
+}
@@ -0,0 +1,48 @@
+package example.freemarker.fragments;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.ViewResolver;
+
+import freemarker.template.Configuration;
+
+public class FragmentPrecompilerTest extends FreeMarkerTest {
+
+    @Test
+    public void testFailsOnUnknownMacro() {
+        var precompiler = new FreeMarkerAutoFragmentConfig.FragmentPrecompiler(newViewResolver(new ArrayList<>()),
+                List.of("autoFragment :: Macro1", "autoFragment :: Macro1, BadMacro"), List.of(Locale.UK), true);
+
+        var e = assertThrows(IllegalStateException.class, precompiler::afterSingletonsInstantiated);
+        assertEquals("""
+                Fragment precompilation failed:
+                Unknown fragment macros [BadMacro] for view "autoFragment :: Macro1, BadMacro" (locale en_GB)""",
+                e.getMessage());
+    }
+
+    @Test
+    public void testWarnsOnUnknownMacro() {
+        List<String> resolved = new ArrayList<>();
+        var precompiler = new FreeMarkerAutoFragmentConfig.FragmentPrecompiler(newViewResolver(resolved),
+                List.of("autoFragment :: BadMacro", "autoFragment :: Macro1"), List.of(Locale.UK, Locale.US), false);
+
+        assertDoesNotThrow(precompiler::afterSingletonsInstantiated);
+        // The views after the bad one are still built
+        assertEquals(List.of("autoFragment :: BadMacro", "autoFragment :: Macro1",
+                "autoFragment :: BadMacro", "autoFragment :: Macro1"), resolved);
+    }
+
+    private static ViewResolver newViewResolver(List<String> resolved) {
+        Configuration cfg = newConfiguration();
+        return (viewName, locale) -> {
+            resolved.add(viewName);
+            return newView(cfg, viewName);
+        };
+    }
+
+}
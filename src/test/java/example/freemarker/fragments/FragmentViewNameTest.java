@@ -0,0 +1,39 @@
+package example.freemarker.fragments;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import example.freemarker.fragments.FragmentViews.FragmentViewName;
+
+public class FragmentViewNameTest {
+
+    @Test
+    public void testParse() {
+        assertEquals(new FragmentViewName("a :: B", "a", "B", List.of("B")), FragmentViewName.parse("a :: B"));
+        assertEquals(new FragmentViewName("a/b :: B, C", "a/b", "B, C", List.of("B", "C")),
+                FragmentViewName.parse("a/b :: B, C"));
+        assertEquals(new FragmentViewName("a :: B,C", "a", "B,C", List.of("B", "C")),
+                FragmentViewName.parse("a :: B,C"));
+        assertEquals(new FragmentViewName("a", "a", null, null), FragmentViewName.parse("a"));
+    }
+
+    @Test
+    public void testParseTranslated() {
+        assertEquals(List.of("MyFragment", "Other", "SnakeCase"),
+                FragmentViewName.parse("a :: my-fragment, other, snake_case", true).macroNames());
+        assertEquals(List.of("my-fragment"), FragmentViewName.parse("a :: my-fragment", false).macroNames());
+        assertEquals("MyFragment", FragmentViewName.transformMacroName("my--fragment", true));
+    }
+
+    @Test
+    public void testParseMalformed() {
+        for (String viewName : new String[] { "a :: ", "a :: B,", "a :: B, , C", "a :: ,B", " :: B", "" }) {
+            assertThrows(IllegalArgumentException.class, () -> FragmentViewName.parse(viewName), viewName);
+            assertThrows(IllegalArgumentException.class, () -> FragmentViewName.parse(viewName, true), viewName);
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+package example.freemarker.fragments;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.View;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+
+public class FragmentViewTest extends FreeMarkerTest {
+
+    @Test
+    public void testRenderFragment() throws Exception {
+        var view = newView(newConfiguration(), "autoFragment :: Macro1, Macro2");
+        var response = new MockHttpServletResponse();
+        render(view, response);
+        assertEquals("macro 1\nmacro 2", response.getContentAsString().trim());
+    }
+
+    @Test
+    public void testRenderFragmentToOutputStream() throws Exception {
+        var view = newView(newConfiguration(), "autoFragment :: Macro1, Macro2");
+        view.directOutput = true;
+        var response = new MockHttpServletResponse();
+        response.setCharacterEncoding("UTF-8");
+        render(view, response);
+        assertEquals("macro 1\nmacro 2", response.getContentAsString().trim());
+    }
+
+    @Test
+    public void testRenderFragmentToWriterOnceInUse() throws Exception {
+        var view = newView(newConfiguration(), "autoFragment :: Macro1");
+        view.directOutput = true;
+        var response = new MockHttpServletResponse();
+        response.getWriter().write("before ");
+        // As servlet containers do once the writer has been used
+        render(view, new HttpServletResponseWrapper(response) {
+            @Override
+            public ServletOutputStream getOutputStream() {
+                throw new IllegalStateException("getWriter() has already been called for this response");
+            }
+        });
+        assertEquals("before macro 1", response.getContentAsString().trim());
+    }
+
+    @Test
+    public void testEvictedTemplatesNotHeldByView() throws Exception {
+        Configuration cfg = newConfiguration();
+        var view = newView(cfg, "autoFragment :: Macro1");
+        render(view, new MockHttpServletResponse());
+        view.fragmentNeeds(Locale.getDefault());
+        Template baseTemplate = cfg.getTemplate(view.getUrl(), Locale.getDefault());
+        var baseRef = new WeakReference<>(baseTemplate);
+        var fragmentRef = new WeakReference<>(view.getTemplate(view.getUrl(), Locale.getDefault()));
+        assertNotSame(baseTemplate, fragmentRef.get());
+
+        // As the template file watcher does
+        cfg.clearTemplateCache();
+        FragmentViews.FRAGMENT_TEMPLATE_BUILDER.evict(Set.of(baseTemplate.getName()));
+        baseTemplate = null;
+        for (int i = 0; i < 50 && (baseRef.get() != null || fragmentRef.get() != null); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(baseRef.get());
+        assertNull(fragmentRef.get());
+
+        // The view is still usable, with the templates loaded again
+        var response = new MockHttpServletResponse();
+        render(view, response);
+        assertEquals("macro 1", response.getContentAsString().trim());
+        Reference.reachabilityFence(view);
+    }
+
+    private static void render(View view, HttpServletResponse response) throws Exception {
+        view.render(Map.of(), new MockHttpServletRequest("GET", "/"), response);
+    }
+
+}
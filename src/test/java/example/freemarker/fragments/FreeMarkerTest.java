@@ -4,6 +4,8 @@ import java.io.IOException;
 import java.io.StringWriter;
 import java.util.Map;
 
+import org.springframework.mock.web.MockServletContext;
+
 import freemarker.cache.ClassTemplateLoader;
 import freemarker.template.Configuration;
 import freemarker.template.DefaultObjectWrapperBuilder;
@@ -28,6 +30,17 @@ abstract class FreeMarkerTest {
         return CONFIG.getTemplate(name);
     }
 
+    // A fragment view as the resolver would create it, for a template in the templates directory
+    protected static FreeMarkerAutoFragmentConfig.CustomFreeMarkerView newView(Configuration cfg, String viewName) {
+        var view = new FreeMarkerAutoFragmentConfig.CustomFreeMarkerView();
+        view.setConfiguration(cfg);
+        view.setServletContext(new MockServletContext());
+        view.setExposeSpringMacroHelpers(false); // Needs a web application context
+        view.fragmentView = FragmentViews.FragmentViewName.parse(viewName);
+        view.setUrl("/templates/" + view.fragmentView.baseViewName() + ".ftlh");
+        return view;
+    }
+
     protected static Configuration newConfiguration() {
         Version version = Configuration.VERSION_2_3_32;
 
@@ -3,16 +3,18 @@ package example.freemarker.fragments;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.io.IOException;
+import java.util.List;
 
 import org.junit.jupiter.api.Test;
 
+import freemarker.core.InvalidReferenceException;
 import freemarker.template.Configuration;
 import freemarker.template.Template;
 import freemarker.template.TemplateException;
 
 public class FullAutoTest extends FreeMarkerTest {
 
-    private static final FragmentTemplate FRAGMENT_TEMPLATE_BUILDER = new FragmentTemplate.FullyAutomatic();
+    private final FragmentTemplate fragmentTemplateBuilder = newFragmentTemplateBuilder(null);
 
     @Test
     public void testAutoFragment() throws TemplateException, IOException {
@@ -93,7 +95,7 @@ public class FullAutoTest extends FreeMarkerTest {
     @Test
     public void testAutoPreFragmentMacro() throws TemplateException, IOException {
         final String preFragmentMacro = "Fragment-Init_Macro"; // Escaped by builder
-        var fragmentBuilder = new FragmentTemplate.FullyAutomatic(preFragmentMacro);
+        var fragmentBuilder = newFragmentTemplateBuilder(preFragmentMacro);
 
         // Check there's no problems when special macro is not defined
         Template template = getTemplate("/templates/autoFragment.ftlh");
@@ -115,9 +117,34 @@ public class FullAutoTest extends FreeMarkerTest {
         assertEquals(expected, process(fragment));
     }
 
+    @Test
+    public void testMultipleFragments() throws TemplateException, IOException {
+        Template template = getTemplate("/templates/autoFragmentImport.ftlh");
+        String fragmentViewName = template.getName() + " :: lib.LibMacro1, LocalMacro1";
+        Template fragment = fragmentTemplateBuilder.build(
+                List.of("lib.LibMacro1", "LocalMacro1"), fragmentViewName, template);
+        String expected = """
+                imported macro 1
+                local macro 1 first line
+                imported macro 2
+                local macro 1 last line""";
+        assertEquals(expected, process(fragment));
+    }
+
+    @Test
+    public void testUnknownFragment() throws IOException {
+        Template template = getTemplate("/templates/autoFragment.ftlh");
+        Template fragment = fragmentTemplate("BadMacro", template);
+        assertThrows(InvalidReferenceException.class, () -> process(fragment));
+    }
+
+
+    protected FragmentTemplate newFragmentTemplateBuilder(String autoCallMacro) {
+        return new FragmentTemplate.FullyAutomatic(autoCallMacro);
+    }
 
-    private static Template fragmentTemplate(String macroName, Template baseTemplate) throws IOException {
-        return fragmentTemplate(macroName, baseTemplate, FRAGMENT_TEMPLATE_BUILDER);
+    private Template fragmentTemplate(String macroName, Template baseTemplate) throws IOException {
+        return fragmentTemplate(macroName, baseTemplate, fragmentTemplateBuilder);
     }
     private static Template fragmentTemplate(String macroName, Template baseTemplate, FragmentTemplate builder) throws IOException {
         String fragmentViewName = baseTemplate.getName() + " :: " + macroName;
@@ -0,0 +1,95 @@
+package example.freemarker.fragments;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import freemarker.core.ManualFragmentDispatch;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+
+public class ManualFragmentDispatchTest extends FreeMarkerTest {
+
+    @Test
+    public void testManualTemplatesMapped() throws IOException {
+        assertEquals(Map.of("article", "ArticleBlock"), ManualFragmentDispatch.findMacroNames(
+                getTemplate("/templates/manual/basic_page.ftlh"), "FRAGMENT"));
+        // Nested within a check that the attribute has content
+        assertEquals(Map.of("row", "Row"), ManualFragmentDispatch.findMacroNames(
+                getTemplate("/templates/manual/table.ftlh"), "FRAGMENT"));
+    }
+
+    @Test
+    public void testOnlyUnambiguousBranchesMapped() throws IOException {
+        Template template = new Template("dispatch", """
+                <#if FRAGMENT == 'a'><@A />
+                <#elseif FRAGMENT == 'b'><@B x=1 />
+                <#elseif FRAGMENT == 'b'><@A />
+                <#elseif FRAGMENT == 'c'><@Missing />
+                <#elseif user??><@A />
+                <#elseif FRAGMENT == 'd'><@A />
+                </#if>
+                <#macro A>a</#macro>
+                <#macro B x>b</#macro>
+                """, newConfiguration());
+        assertEquals(Map.of("a", "A"), ManualFragmentDispatch.findMacroNames(template, "FRAGMENT"));
+    }
+
+    @Test
+    public void testOtherTopLevelContentNotMapped() throws IOException {
+        Template template = new Template("dispatch", """
+                <#assign title = 'Title'>
+                <#if FRAGMENT == 'a'><@A /></#if>
+                <#macro A>${title}</#macro>
+                """, newConfiguration());
+        assertEquals(Map.of(), ManualFragmentDispatch.findMacroNames(template, "FRAGMENT"));
+    }
+
+    @Test
+    public void testRoutedViewsRenderAsTemplates() throws Exception {
+        Person person = new Person(3, "George John", "gj@gmail.com");
+        assertRoutedAsTemplate("manual/basic_page", Map.of("FRAGMENT", "article"), "ArticleBlock");
+        assertRoutedAsTemplate("manual/table", Map.of("FRAGMENT", "row", "person", person), "Row");
+    }
+
+    @Test
+    public void testUnknownFragmentNotRouted() throws Exception {
+        Configuration cfg = newConfiguration();
+        var view = newView(cfg, "manual/table");
+        view.manualFragmentResolver = (viewName, locale) -> fail("Routed to " + viewName);
+        var e = assertThrows(Exception.class, () -> render(view, Map.of("FRAGMENT", "cell")));
+        assertTrue(e.getMessage().contains("Unknown fragment identifier: \"cell\""), e.getMessage());
+    }
+
+    // The main application's templates, rendered through the view with and without routing
+    private static void assertRoutedAsTemplate(String viewName, Map<String, ?> model, String macroName)
+            throws Exception {
+        Configuration cfg = newConfiguration();
+        Map<String, String> routedTo = new HashMap<>();
+        var routedView = newView(cfg, viewName);
+        routedView.manualFragmentResolver = (fragmentViewName, locale) -> {
+            routedTo.put(viewName, fragmentViewName);
+            return newView(cfg, fragmentViewName);
+        };
+        String routed = render(routedView, model);
+        assertEquals(Map.of(viewName, viewName + " :: " + macroName), routedTo);
+
+        String evaluated = render(newView(cfg, viewName), model);
+        assertFalse(evaluated.isBlank());
+        assertEquals(evaluated.strip(), routed.strip());
+    }
+
+    private static String render(FreeMarkerAutoFragmentConfig.CustomFreeMarkerView view, Map<String, ?> model)
+            throws Exception {
+        var response = new MockHttpServletResponse();
+        view.render(model, new MockHttpServletRequest("GET", "/"), response);
+        return response.getContentAsString();
+    }
+
+}
@@ -0,0 +1,101 @@
+package example.freemarker.fragments;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import freemarker.core.InvalidReferenceException;
+import freemarker.template.SimpleHash;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+
+public class ParallelFragmentsTest extends FreeMarkerTest {
+    private static final String EXPECTED = """
+            <h1>Page</h1>
+            first 1
+            middle
+            second 2
+            first 1""";
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    public void shutDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testFragmentsRenderConcurrently() throws TemplateException, IOException {
+        // Each value waits for the other one to be read, so rendering them one at a time would time out
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        Map<String, Object> model = Map.of("title", "Page",
+                "first", new Component("1", barrier), "second", new Component("2", barrier));
+        assertEquals(EXPECTED, render(model, executor));
+    }
+
+    @Test
+    public void testInlineWithoutExecutor() throws TemplateException, IOException {
+        Map<String, Object> model = Map.of("title", "Page",
+                "first", new Component("1", null), "second", new Component("2", null));
+        assertEquals(EXPECTED, render(model, null));
+    }
+
+    @Test
+    public void testFragmentFailure() throws TemplateException, IOException {
+        Template page = getTemplate("/templates/parallelPageFailure.ftlh");
+        ParallelFragments parallelFragments = newParallelFragments(Map.of(), executor);
+        page.process(newDataModel(Map.of(), parallelFragments), parallelFragments.getWriter());
+        assertThrows(InvalidReferenceException.class, () -> parallelFragments.writeTo(new StringWriter()));
+    }
+
+    private static String render(Map<String, Object> model, ExecutorService executor)
+            throws TemplateException, IOException {
+        Template page = getTemplate("/templates/parallelPage.ftlh");
+        ParallelFragments parallelFragments = newParallelFragments(model, executor);
+        page.process(newDataModel(model, parallelFragments), parallelFragments.getWriter());
+        StringWriter writer = new StringWriter();
+        parallelFragments.writeTo(writer);
+        return writer.toString().trim();
+    }
+
+    private static ParallelFragments newParallelFragments(Map<String, Object> model, ExecutorService executor) {
+        return new ParallelFragments(new FragmentTemplate.DirectInvocation(), executor,
+                () -> newDataModel(model, ParallelFragments.INLINE));
+    }
+
+    private static SimpleHash newDataModel(Map<String, Object> model, ParallelFragments parallelFragments) {
+        SimpleHash dataModel = new SimpleHash(model, newConfiguration().getObjectWrapper());
+        dataModel.put("parallelFragment", parallelFragments);
+        return dataModel;
+    }
+
+    // Its value is slow to load the first time it's read, until the other component's value is read too
+    public static class Component {
+        private final String value;
+        private final CyclicBarrier barrier;
+        private final AtomicBoolean loaded = new AtomicBoolean();
+
+        Component(String value, CyclicBarrier barrier) {
+            this.value = value;
+            this.barrier = barrier;
+        }
+
+        public String getValue() throws Exception {
+            if (barrier != null && loaded.compareAndSet(false, true)) {
+                barrier.await(5, TimeUnit.SECONDS);
+            }
+            return value;
+        }
+    }
+
+}
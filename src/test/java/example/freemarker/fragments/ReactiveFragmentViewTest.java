@@ -0,0 +1,43 @@
+package example.freemarker.fragments;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+
+import example.freemarker.fragments.FreeMarkerReactiveFragmentConfig.ReactiveFragmentView;
+
+public class ReactiveFragmentViewTest extends FreeMarkerTest {
+
+    @Test
+    public void testRenderFragment() {
+        assertEquals("macro 1", render("autoFragment :: Macro1"));
+        assertEquals("macro 1\nmacro 2", render("autoFragment :: Macro1, Macro2"));
+    }
+
+    @Test
+    public void testRenderFullTemplate() {
+        String expected = """
+                first line
+                macro 2
+                last line""";
+        assertEquals(expected, render("autoFragment"));
+    }
+
+    private static String render(String viewName) {
+        ReactiveFragmentView view = new ReactiveFragmentView();
+        view.setConfiguration(newConfiguration());
+        view.setExposeSpringMacroHelpers(false);
+        view.fragmentView = FragmentViews.FragmentViewName.parse(viewName);
+        view.setUrl("/templates/" + view.fragmentView.baseViewName() + ".ftlh");
+
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/"));
+        view.render(Map.of(), MediaType.TEXT_HTML, exchange).block();
+        return exchange.getResponse().getBodyAsString().block().trim();
+    }
+
+}
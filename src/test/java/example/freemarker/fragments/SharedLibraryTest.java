@@ -0,0 +1,77 @@
+package example.freemarker.fragments;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import freemarker.cache.StringTemplateLoader;
+import freemarker.core.LibraryLoad;
+import freemarker.core.SharedLibraryLoad;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+
+// Runs the same fragment tests as for FullyAutomatic, since sharing libraries shouldn't change the output.
+public class SharedLibraryTest extends FullAutoTest {
+
+    @Override
+    protected FragmentTemplate newFragmentTemplateBuilder(String autoCallMacro) {
+        return new FragmentTemplate.DirectInvocation(autoCallMacro, true);
+    }
+
+    @Test
+    @SuppressWarnings({ "deprecation", "unchecked" })
+    public void testOnlyLibrariesWithoutSideEffectsShared() throws IOException {
+        Template template = getTemplate("/templates/autoFragmentSharedImports.ftlh");
+        List<LibraryLoad> imports = (List<LibraryLoad>) template.getImports();
+
+        assertInstanceOf(SharedLibraryLoad.class, SharedLibrary.share(imports.get(0), template));
+        assertSame(imports.get(1), SharedLibrary.share(imports.get(1), template));
+    }
+
+    @Test
+    public void testSharedLibrariesReused() throws TemplateException, IOException {
+        Template template = getTemplate("/templates/autoFragmentSharedImports.ftlh");
+        Template fragment = newFragmentTemplateBuilder(null)
+                .build("LocalMacro1", "autoFragmentSharedImports :: LocalMacro1", template);
+        String expected = """
+                macro calling nested first line
+                imported macro 1
+                macro calling nested last line
+                imported greeting""";
+        assertEquals(expected, process(fragment));
+        assertEquals(expected, process(fragment));
+    }
+
+    // The library is only looked up and walked for the first render (until the template update delay has passed),
+    // but each render still gets its own namespace, so nothing a render assigns to it is seen by the next
+    @Test
+    public void testLibraryEvaluatedOnceButNamespacePerRender() throws TemplateException, IOException {
+        var loader = new StringTemplateLoader();
+        loader.putTemplate("page.ftlh", """
+                <#import "lib.ftlh" as lib>
+                <#macro Fragment><@lib.Greeting /> ${lib.count!0}<#assign count = 1 in lib></#macro>""");
+        loader.putTemplate("lib.ftlh", "<#macro Greeting>hello</#macro>");
+        Configuration cfg = newConfiguration();
+        cfg.setTemplateLoader(loader);
+        cfg.setTemplateUpdateDelayMilliseconds(60_000);
+
+        Template shared = new FragmentTemplate.DirectInvocation(null, true)
+                .build("Fragment", "page :: Fragment", cfg.getTemplate("page.ftlh"));
+        Template unshared = new FragmentTemplate.DirectInvocation(null, false)
+                .build("Fragment", "page :: Fragment", cfg.getTemplate("page.ftlh"));
+        assertEquals("hello 0", process(shared));
+        assertEquals("hello 0", process(shared));
+        assertEquals("hello 0", process(unshared));
+
+        // Only the render which doesn't share the library looks it up again
+        loader.putTemplate("lib.ftlh", "<#macro Greeting>goodbye</#macro>");
+        cfg.removeTemplateFromCache("lib.ftlh");
+        assertEquals("hello 0", process(shared));
+        assertEquals("goodbye 0", process(unshared));
+    }
+
+}
@@ -0,0 +1,119 @@
+package example.freemarker.fragments;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+
+public class StreamingWriterTest extends FreeMarkerTest {
+
+    @Test
+    public void testFlushesWhenBufferFills() throws IOException {
+        FlushCountingOutputStream out = new FlushCountingOutputStream();
+        StreamingWriter writer = new StreamingWriter(out, StandardCharsets.UTF_8, new BufferPool(8, 1));
+        writer.write("abcdefghijklmnopqrst");
+        assertEquals("abcdefghijklmnop", out.toString(StandardCharsets.UTF_8));
+        assertEquals(2, out.flushes);
+
+        writer.close();
+        assertEquals("abcdefghijklmnopqrst", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testMultiByteCharactersAcrossWrites() throws IOException {
+        String text = "café 😀 €";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamingWriter writer = new StreamingWriter(out, StandardCharsets.UTF_8, new BufferPool(8, 1));
+        // Single chars, so the surrogate pair is split across writes
+        for (char c : text.toCharArray()) {
+            writer.write(c);
+        }
+        writer.close();
+        assertEquals(text, out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testUtf8SameAsEncoder() throws IOException {
+        // Including malformed surrogates, which are replaced
+        String text = "ascii é € 😀 \uDC00 x \uD800 y 😀😀 end \uD800";
+        for (int chunkSize = 1; chunkSize <= text.length(); chunkSize++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            StreamingWriter writer = new StreamingWriter(out, StandardCharsets.UTF_8, new BufferPool(8, 1), false);
+            for (int i = 0; i < text.length(); i += chunkSize) {
+                writer.write(text, i, Math.min(chunkSize, text.length() - i));
+            }
+            writer.close();
+            assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), out.toByteArray(), "chunk size " + chunkSize);
+            assertEquals(text.length(), writer.getCount());
+        }
+    }
+
+    @Test
+    public void testOtherCharsetsEncoded() throws IOException {
+        String text = "café € 😀";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamingWriter writer = new StreamingWriter(out, StandardCharsets.ISO_8859_1, new BufferPool(8, 1));
+        writer.write(text.toCharArray());
+        writer.close();
+        assertArrayEquals(text.getBytes(StandardCharsets.ISO_8859_1), out.toByteArray());
+    }
+
+    @Test
+    public void testOnlyFlushesWhenFullIfStreaming() throws IOException {
+        FlushCountingOutputStream out = new FlushCountingOutputStream();
+        StreamingWriter writer = new StreamingWriter(out, StandardCharsets.UTF_8, new BufferPool(8, 1), false);
+        writer.write("abcdefghijklmnopqrst");
+        assertEquals("abcdefghijklmnop", out.toString(StandardCharsets.UTF_8));
+        assertEquals(0, out.flushes);
+    }
+
+    @Test
+    public void testReleaseDiscardsUnwrittenOutput() throws IOException {
+        BufferPool pool = new BufferPool(16, 1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamingWriter writer = new StreamingWriter(out, StandardCharsets.UTF_8, pool);
+        writer.write("discarded");
+        writer.release();
+        assertEquals(0, out.size());
+        assertThrows(IOException.class, () -> writer.write("closed"));
+    }
+
+    @Test
+    public void testBufferTooSmall() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new StreamingWriter(new ByteArrayOutputStream(), StandardCharsets.UTF_8, new BufferPool(4, 1)));
+    }
+
+    @Test
+    public void testFragmentOutput() throws TemplateException, IOException {
+        Template template = getTemplate("/templates/autoFragment.ftlh");
+        Template fragment = new FragmentTemplate.DirectInvocation().build("Macro1", "autoFragment :: Macro1", template);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamingWriter writer = new StreamingWriter(out, StandardCharsets.UTF_8, new BufferPool(8, 1));
+        try {
+            fragment.process(null, writer);
+            writer.close();
+        } finally {
+            writer.release();
+        }
+        assertEquals("macro 1", out.toString(StandardCharsets.UTF_8).trim());
+    }
+
+
+    private static class FlushCountingOutputStream extends ByteArrayOutputStream {
+        int flushes;
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+package example.freemarker.fragments;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import freemarker.cache.FileTemplateLoader;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+
+public class TemplateFileWatcherTest extends FreeMarkerTest {
+    @TempDir
+    Path directory;
+    private Configuration cfg;
+    private TemplateFileWatcher watcher;
+    private final BlockingQueue<Set<String>> evictions = new LinkedBlockingQueue<>();
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        Files.createDirectory(directory.resolve("lib"));
+        Files.writeString(directory.resolve("lib/library.ftlh"), "<#macro Greeting>Hello</#macro>");
+        Files.writeString(directory.resolve("page.ftlh"), """
+                <#import "lib/library.ftlh" as lib>
+                <@lib.Greeting />""");
+        Files.writeString(directory.resolve("other.ftlh"), "Other");
+
+        cfg = newConfiguration();
+        cfg.setTemplateLoader(new FileTemplateLoader(directory.toFile()));
+        watcher = TemplateFileWatcher.start(cfg, List.of(), evictions::add);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        watcher.close();
+    }
+
+    @Test
+    public void testPollingDisabled() {
+        assertEquals(Long.MAX_VALUE, cfg.getTemplateUpdateDelayMilliseconds());
+    }
+
+    @Test
+    public void testModifiedTemplateAndImportersEvicted() throws Exception {
+        Template library = cfg.getTemplate("lib/library.ftlh");
+        Template page = cfg.getTemplate("page.ftlh");
+        Template other = cfg.getTemplate("other.ftlh");
+        assertEquals("Hello", process(page));
+
+        Files.writeString(directory.resolve("lib/library.ftlh"), "<#macro Greeting>Goodbye</#macro>");
+
+        assertEquals(Set.of("lib/library.ftlh", "page.ftlh"), evictions.poll(10, TimeUnit.SECONDS));
+        assertNotSame(library, cfg.getTemplate("lib/library.ftlh"));
+        assertNotSame(page, cfg.getTemplate("page.ftlh"));
+        assertSame(other, cfg.getTemplate("other.ftlh"));
+        assertEquals("Goodbye", process(cfg.getTemplate("page.ftlh")));
+    }
+
+    @Test
+    public void testCreatedTemplateClearsCache() throws Exception {
+        Template other = cfg.getTemplate("other.ftlh");
+        assertNull(cfg.getTemplate("new.ftlh", null, null, null, true, true));
+
+        Files.writeString(directory.resolve("new.ftlh"), "New");
+
+        assertEquals(Set.of("other.ftlh"), evictions.poll(10, TimeUnit.SECONDS));
+        assertNotSame(other, cfg.getTemplate("other.ftlh"));
+        assertEquals("New", process(cfg.getTemplate("new.ftlh")));
+    }
+
+}